@@ -17,32 +17,98 @@ package com.example.android.pets;
 
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.android.pets.data.PetContract;
-import com.example.android.pets.data.PetCursorAdapter;
 import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetPageLoader;
+import com.example.android.pets.data.PetRecyclerAdapter;
+import com.example.android.pets.data.PetWriteQueue;
 
 /**
  * Displays list of pets that were entered and stored in the app.
  */
-public class CatalogActivity extends AppCompatActivity {
+public class CatalogActivity extends AppCompatActivity
+        implements LoaderManager.LoaderCallbacks<Cursor> {
     private PetDbHelper mDbHelper;
     private static final String LOG_TAG= CatalogActivity.class.getName();
 
+    /** Identifier for the pet data loader */
+    private static final int PET_LOADER = 0;
+
+    /** Number of pets loaded per page */
+    private static final int PAGE_SIZE = 200;
+
+    /** Number of rows from the end of the list at which the next page is requested */
+    private static final int PREFETCH_DISTANCE = 50;
+
+    /** Adapter for the RecyclerView, fed with cursors from the pet loader */
+    private PetRecyclerAdapter mAdapter;
+
+    /** View shown instead of the list while there are no pets */
+    private View mEmptyView;
+
+    /** Identifier for the search loader */
+    private static final int SEARCH_LOADER = 1;
+
+    /** Key of the text to search for in the search loader's arguments */
+    private static final String ARG_SEARCH_QUERY = "search_query";
+
+    /** Key of the text being searched for in the saved instance state */
+    private static final String STATE_SEARCH_QUERY = "search_query";
+
+    /** Most search results shown at once */
+    private static final int SEARCH_RESULT_LIMIT = 200;
+
+    /** Time to wait after the last keystroke before searching, in milliseconds */
+    private static final long SEARCH_DELAY_MILLIS = 300;
+
+    /** Latest cursor from the pet loader, shown again once a search is cleared */
+    private Cursor mCatalogCursor;
+
+    /** Text being searched for, or null while the whole catalog is shown */
+    private String mSearchQuery;
+
+    /**
+     * Whether the list shows search results. It goes on showing the catalog after a search
+     * starts, until the first results come in.
+     */
+    private boolean mShowingSearchResults;
+
+    /** Text typed into the search box that hasn't been searched for yet */
+    private String mPendingSearchQuery;
+
+    private final Handler mHandler = new Handler();
+
+    /** Runs the search once the user has stopped typing for a moment */
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applySearchQuery(mPendingSearchQuery);
+        }
+    };
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -59,9 +125,34 @@ public class CatalogActivity extends AppCompatActivity {
             }
         });
         mDbHelper = new PetDbHelper(this);
-        displayDatabaseInfoListView();
-        //mDb = mDbHelper.getReadableDatabase();
+        setupListView();
+
+        // Kick off the loader, it will query the pets on a background thread
+        getSupportLoaderManager().initLoader(PET_LOADER, null, this);
+
+        // Carry on with the search that was shown before the activity was recreated, such as on
+        // rotation. The loader manager keeps the search loader, so this picks up its results
+        // rather than searching again.
+        if (savedInstanceState != null) {
+            mSearchQuery = savedInstanceState.getString(STATE_SEARCH_QUERY);
+            if (mSearchQuery != null) {
+                Bundle args = new Bundle();
+                args.putString(ARG_SEARCH_QUERY, mSearchQuery);
+                getSupportLoaderManager().initLoader(SEARCH_LOADER, args, this);
+            }
+        }
+    }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SEARCH_QUERY, mSearchQuery);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(mSearchRunnable);
     }
 
     /**
@@ -167,16 +258,85 @@ public class CatalogActivity extends AppCompatActivity {
 
 
     /**
-     * Temporary helper method to display information in the onscreen TextView about the state of
-     * the pets database.
+     * Hook the RecyclerView up to an adapter whose cursor is supplied by the pet loader. The
+     * adapter starts out empty and has its cursor swapped in whenever the loader delivers new data.
      */
-    private void displayDatabaseInfoListView() {
-        // To access our database, we instantiate our subclass of SQLiteOpenHelper
-        // and pass the context, which is the current activity.
+    private void setupListView() {
+        RecyclerView displayView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        displayView.setLayoutManager(layoutManager);
+        mAdapter = new PetRecyclerAdapter();
+        displayView.setAdapter(mAdapter);
+
+        // RecyclerView has no empty view of its own, so show ours whenever the list has 0 items
+        mEmptyView = findViewById(R.id.empty_view);
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
 
-        // Create and/or open a database to read from it
-        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+
+        // Ask for the next page of pets once the user gets close to the end of the list
+        displayView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = layoutManager.getItemCount();
+                if (mSearchQuery == null && totalItemCount > 0 && layoutManager.findLastVisibleItemPosition()
+                        >= totalItemCount - PREFETCH_DISTANCE) {
+                    Loader<Cursor> loader = getSupportLoaderManager().getLoader(PET_LOADER);
+                    if (loader instanceof PetPageLoader) {
+                        ((PetPageLoader) loader).loadNextPage();
+                    }
+                }
+            }
+        });
+    }
 
+    /**
+     * Show the empty view only while there are no pets in the list.
+     */
+    private void updateEmptyView() {
+        mEmptyView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Search the pets for the given text, or go back to showing all of them if it is empty.
+     * The search itself runs on a background thread in the search loader.
+     */
+    private void applySearchQuery(String query) {
+        String trimmedQuery = query == null ? "" : query.trim();
+        if (trimmedQuery.length() == 0) {
+            if (mSearchQuery != null) {
+                mSearchQuery = null;
+                getSupportLoaderManager().destroyLoader(SEARCH_LOADER);
+                mShowingSearchResults = false;
+                mAdapter.resetCursor(mCatalogCursor);
+            }
+            return;
+        }
+        if (trimmedQuery.equals(mSearchQuery)) {
+            return;
+        }
+
+        mSearchQuery = trimmedQuery;
+        Bundle args = new Bundle();
+        args.putString(ARG_SEARCH_QUERY, trimmedQuery);
+        getSupportLoaderManager().restartLoader(SEARCH_LOADER, args, this);
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         String[] projection = {
                 PetContract.PetEntry._ID,
                 PetContract.PetEntry.COLUMN_PET_NAME,
@@ -184,21 +344,48 @@ public class CatalogActivity extends AppCompatActivity {
                 PetContract.PetEntry.COLUMN_PET_GENDER,
                 PetContract.PetEntry.COLUMN_PET_WEIGHT };
 
-        Cursor cursor = getContentResolver().query(PetContract.PetEntry.CONTENT_URI, projection,
-                null,null,null);
-        ListView displayView = (ListView) findViewById(R.id.list);
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        displayView.setEmptyView(emptyView);
-        PetCursorAdapter petCursorAdapter = new PetCursorAdapter(this, cursor);
-        displayView.setAdapter(petCursorAdapter);
+        if (id == SEARCH_LOADER) {
+            Uri searchUri = PetContract.PetEntry.SEARCH_URI.buildUpon()
+                    .appendQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_SEARCH,
+                            args.getString(ARG_SEARCH_QUERY))
+                    .appendQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_LIMIT,
+                            String.valueOf(SEARCH_RESULT_LIMIT))
+                    .build();
+            return new SearchLoader(this, searchUri, projection);
+        }
+
+        // The loader runs the queries on a background thread, one page at a time, and re-runs
+        // them whenever the provider reports a change to the pets data.
+        return new PetPageLoader(this, projection, PAGE_SIZE);
+    }
 
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        // The loaders own the cursors and close the previous ones, so just swap in the new data
+        // of whichever loader is being shown
+        if (loader.getId() == PET_LOADER) {
+            mCatalogCursor = data;
+            if (mSearchQuery == null) {
+                mAdapter.swapCursor(data);
+            }
+        } else if (mSearchQuery != null) {
+            if (mShowingSearchResults) {
+                // Results of an earlier search, which the new ones are diffed against
+                mAdapter.swapCursor(data);
+            } else {
+                mShowingSearchResults = true;
+                mAdapter.resetCursor(data);
+            }
+        }
     }
 
     @Override
-    protected void onStart() {
-        super.onStart();
-        displayDatabaseInfoListView();
+    public void onLoaderReset(Loader<Cursor> loader) {
+        // The adapter only keeps a copy of what it shows, so there is nothing to let go of
+        // except our own reference to the catalog cursor
+        if (loader.getId() == PET_LOADER) {
+            mCatalogCursor = null;
+        }
     }
 
     /**
@@ -233,6 +420,36 @@ public class CatalogActivity extends AppCompatActivity {
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Search as the user types, but only once they pause, so that a burst of keystrokes
+        // turns into a single query
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setQueryHint(getString(R.string.search_hint));
+        // Show the search that is still running after the activity was recreated. This happens
+        // before the listener is set, so that neither expanding the view nor setting its text
+        // starts another search.
+        if (mSearchQuery != null) {
+            MenuItemCompat.expandActionView(searchItem);
+            searchView.setQuery(mSearchQuery, false);
+            searchView.clearFocus();
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mHandler.removeCallbacks(mSearchRunnable);
+                applySearchQuery(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mPendingSearchQuery = newText;
+                mHandler.removeCallbacks(mSearchRunnable);
+                mHandler.postDelayed(mSearchRunnable, SEARCH_DELAY_MILLIS);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -244,22 +461,55 @@ public class CatalogActivity extends AppCompatActivity {
             case R.id.action_insert_dummy_data:
                 // Do nothing for now
                 insertPet();
-                displayDatabaseInfoListView();
                 return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
-                // Do nothing for now
-                int numOfRowDelete = getContentResolver().delete(PetContract.PetEntry.CONTENT_URI,null, null);
-                if (numOfRowDelete > 1){
-                    Toast.makeText(this, getString(R.string.pet_deleted, numOfRowDelete), Toast.LENGTH_LONG).show();
-                    Log.e(LOG_TAG, "numofrowdelete > 1 pet_deleted");
-                } else {
-                    Toast.makeText(this, getString(R.string.pet_cannot_deleted), Toast.LENGTH_LONG).show();
-                    Log.e(LOG_TAG, "numofrowdelete > 1 pet_cannot_deleted");
-                }
-                displayDatabaseInfoListView();
+                // Clear the whole shelter in one go rather than deleting pet by pet. This can take
+                // a while, so the write queue does it and tells the user once it is done.
+                PetWriteQueue.get(this).call(PetContract.PetEntry.METHOD_DELETE_ALL_PETS, null,
+                        new DeleteAllCallback(getApplicationContext()));
                 return true;
         }
         return super.onOptionsItemSelected(item);
     }
+
+    /**
+     * Loads the results of a search and copies them for the adapter while still on the loader
+     * thread. Static, so that a loader kept across a configuration change doesn't hold on to
+     * the old activity.
+     */
+    private static class SearchLoader extends CursorLoader {
+        SearchLoader(Context context, Uri uri, String[] projection) {
+            super(context, uri, projection, null, null, null);
+        }
+
+        @Override
+        public Cursor loadInBackground() {
+            return PetRecyclerAdapter.withSnapshot(super.loadInBackground());
+        }
+    }
+
+    /**
+     * Tells the user how many pets were deleted once the write queue has deleted all of them.
+     * Only holds on to the application context, as the catalog may be gone by then.
+     */
+    private static class DeleteAllCallback implements PetWriteQueue.Callback {
+        private final Context mContext;
+
+        DeleteAllCallback(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        public void onWriteComplete(PetWriteQueue.Result result) {
+            if (result.count > 0){
+                Toast.makeText(mContext, mContext.getString(R.string.pet_deleted, result.count),
+                        Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(mContext, mContext.getString(R.string.pet_cannot_deleted),
+                        Toast.LENGTH_LONG).show();
+                Log.e(LOG_TAG, "no pets deleted, pet_cannot_deleted");
+            }
+        }
+    }
 }
@@ -17,9 +17,8 @@ package com.example.android.pets;
 
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.database.Cursor;
+import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
-import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
@@ -37,6 +36,7 @@ import android.widget.Toast;
 import com.example.android.pets.data.PetContract;
 import com.example.android.pets.data.PetContract.PetEntry;
 import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetWriteQueue;
 
 /**
  * Allows user to create a new pet or edit an existing one.
@@ -168,7 +168,7 @@ public class EditorActivity extends AppCompatActivity {
     */
 
     /**
-     * Get user input from editor and save new pet into database.
+     * Get user input from editor and queue saving the new pet into the database.
      */
     private void insertPet() {
         // Read from input fields
@@ -185,10 +185,6 @@ public class EditorActivity extends AppCompatActivity {
 
         int weight = Integer.parseInt(weightString);
 
-        // Create database helper
-        PetDbHelper mDbHelper = new PetDbHelper(this);
-
-
         // Create a ContentValues object where column names are the keys,
         // and pet attributes from the editor are the values.
         ContentValues values = new ContentValues();
@@ -197,109 +193,89 @@ public class EditorActivity extends AppCompatActivity {
         values.put(PetEntry.COLUMN_PET_GENDER, mGender);
         values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
 
-        Uri newUri = getContentResolver().insert(PetContract.PetEntry.CONTENT_URI, values);
-
-
-        // Insert the new row, returning the primary key value of the new row
-        long newRowId= ContentUris.parseId(newUri);
-
-        if (newRowId == -1){
-            Toast.makeText(this, "Error with saving pet", Toast.LENGTH_SHORT).show();
-            Log.e(LOG_TAG, "*************cannot insert");
-        } else {
-            Toast.makeText(this, getString(R.string.pet_saved)+ " " + newRowId, Toast.LENGTH_LONG).show();
-
-        }
-
+        // The pet is written in the background, the editor doesn't wait for it
+        PetWriteQueue.get(this).insert(values, new SaveCallback(getApplicationContext()));
     }
 
-    private int deletePets(){
+    /**
+     * Delete every pet that matches what is entered in the editor. Fields left empty are not
+     * part of the match, except for the gender, which always is. The provider looks the pets up
+     * and deletes them in a single call, made in the background.
+     */
+    private void deletePets(){
         String nameString = mNameEditText.getText().toString().trim();
         String breedString = mBreedEditText.getText().toString().trim();
         String weightString = mWeightEditText.getText().toString().trim();
-        String [] selectionArgs={};
-        String selection="" ;
-        boolean firstClause=false;
 
+        Bundle criteria = new Bundle();
         if (nameString.length() >0) {
-            selection = selection + PetEntry.COLUMN_PET_NAME + "=? ";
-            String [] tempString = new String[selectionArgs.length+1];
-            System.arraycopy(selectionArgs,0,tempString,0,selectionArgs.length);
-            tempString[selectionArgs.length ] = nameString;
-            selectionArgs = tempString;
-            firstClause=true;
+            criteria.putString(PetEntry.COLUMN_PET_NAME, nameString);
         }
-
         if (breedString.length() >0) {
-            selection = selection + (firstClause ? " AND " : "" )+ PetEntry.COLUMN_PET_BREED + "=? ";
-            String [] tempString = new String[selectionArgs.length+1];
-            System.arraycopy(selectionArgs,0,tempString,0,selectionArgs.length);
-            tempString[selectionArgs.length ] = breedString;
-            selectionArgs = tempString;
-            firstClause=true;
+            criteria.putString(PetEntry.COLUMN_PET_BREED, breedString);
         }
-
         if (weightString.length() >0) {
-            selection = selection + (firstClause ? " AND " : "" )+ PetEntry.COLUMN_PET_WEIGHT + "=? ";
-            String [] tempString = new String[selectionArgs.length+1];
-            System.arraycopy(selectionArgs,0,tempString,0,selectionArgs.length);
-            tempString[selectionArgs.length ] = weightString;
-            selectionArgs = tempString;
-            firstClause=true;
+            int weight;
+            try {
+                weight = Integer.parseInt(weightString);
+            } catch (NumberFormatException e) {
+                // The keyboard only offers digits, but a weight can still be too big for an int
+                Toast.makeText(this, getString(R.string.pet_invalid_weight), Toast.LENGTH_SHORT).show();
+                Log.e(LOG_TAG, "invalid weight " + weightString, e);
+                return;
+            }
+            criteria.putInt(PetEntry.COLUMN_PET_WEIGHT, weight);
         }
+        criteria.putInt(PetEntry.COLUMN_PET_GENDER, mGender);
 
-        selection = selection +(firstClause ? " AND " : "" ) + PetEntry.COLUMN_PET_GENDER + "=?  ";
-        String[] tempString = new String[selectionArgs.length + 1];
-        System.arraycopy(selectionArgs,0,tempString,0,selectionArgs.length);
-        tempString[selectionArgs.length ] = String.valueOf(mGender);
-        selectionArgs = tempString;
-
-        // Define a projection that specifies which columns from the database
-        // you will actually use after this query.
-        String[] projection = {
-                PetContract.PetEntry._ID,
-                };
-
-        Cursor cursor = getContentResolver().query(PetContract.PetEntry.CONTENT_URI, projection,
-                selection,selectionArgs,null);
-        int idColumnIndex = cursor.getColumnIndex(PetContract.PetEntry._ID);
-        int numOfRowDelete=0;
-
-        if (cursor.getCount()==1){
-            //delete only one row
-            // Gets the database in write mode
-            cursor.moveToNext();
-            long currentID = (long) cursor.getInt(idColumnIndex);
-            Uri newUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, currentID);
-            selection = PetEntry._ID + "=? ";
-            String [] newSelectionArgs = { String.valueOf(currentID) };
-            numOfRowDelete = getContentResolver().delete(newUri,selection, newSelectionArgs);
-            if (numOfRowDelete == 1){
-                Toast.makeText(this, getString(R.string.pet_deleted, numOfRowDelete), Toast.LENGTH_LONG).show();
-                Log.e(LOG_TAG, "numofrowdelete == 1 pet_deleted");
-            } else {
-                Toast.makeText(this, getString(R.string.pet_cannot_deleted), Toast.LENGTH_LONG).show();
-                Log.e(LOG_TAG, "numofrowdelete == 1 pet_cannot_deleted");
-            }
-        } else if (cursor.getCount() > 1) {
-            //delete multiple rows
-            numOfRowDelete = getContentResolver().delete(PetEntry.CONTENT_URI,selection, selectionArgs);
-            if (numOfRowDelete > 1){
-                Toast.makeText(this, getString(R.string.pet_deleted, numOfRowDelete), Toast.LENGTH_LONG).show();
-                Log.e(LOG_TAG, "numofrowdelete > 1 pet_deleted");
+        PetWriteQueue.get(this).call(PetEntry.METHOD_DELETE_PETS, criteria,
+                new DeleteCallback(getApplicationContext()));
+    }
+
+    /**
+     * Tells the user whether the pet was saved once the write queue has written it. Only holds
+     * on to the application context, as the editor is usually gone by then.
+     */
+    private static class SaveCallback implements PetWriteQueue.Callback {
+        private final Context mContext;
+
+        SaveCallback(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        public void onWriteComplete(PetWriteQueue.Result result) {
+            if (!result.isSuccessful()){
+                Toast.makeText(mContext, "Error with saving pet", Toast.LENGTH_SHORT).show();
+                Log.e(LOG_TAG, "*************cannot insert");
             } else {
-                Toast.makeText(this, getString(R.string.pet_cannot_deleted), Toast.LENGTH_LONG).show();
-                Log.e(LOG_TAG, "numofrowdelete > 1 pet_cannot_deleted");
+                Toast.makeText(mContext, mContext.getString(R.string.pet_saved) + " "
+                        + ContentUris.parseId(result.uri), Toast.LENGTH_LONG).show();
             }
-        } else {
-            Toast.makeText(this, getString(R.string.pet_cannot_deleted), Toast.LENGTH_LONG).show();
-            Log.e(LOG_TAG, "cusor == 0  pet_cannot_deleted");
         }
+    }
 
-        cursor.close();
-        return numOfRowDelete;
+    /**
+     * Tells the user how many pets were deleted once the write queue has deleted them.
+     */
+    private static class DeleteCallback implements PetWriteQueue.Callback {
+        private final Context mContext;
 
+        DeleteCallback(Context context) {
+            mContext = context;
+        }
 
+        @Override
+        public void onWriteComplete(PetWriteQueue.Result result) {
+            if (result.count > 0){
+                Toast.makeText(mContext, mContext.getString(R.string.pet_deleted, result.count),
+                        Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(mContext, mContext.getString(R.string.pet_cannot_deleted),
+                        Toast.LENGTH_LONG).show();
+                Log.e(LOG_TAG, "no pet matches, pet_cannot_deleted");
+            }
+        }
     }
 
     @Override
@@ -0,0 +1,223 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Translates between breeds and their ids in the breeds table. Pets only store the id of their
+ * breed, which is far smaller than the breed itself and compares as an integer, while callers of
+ * the provider keep reading and writing the breed column as text.
+ *
+ * There are only a few hundred breeds, so every id that has been looked up is kept in memory and
+ * most writes never have to read the breeds table. Breeds are never deleted on their own, so an
+ * id stays valid until the breeds table is emptied, see {@link #clear(SQLiteDatabase)}. As with
+ * the row cache, an id read from the database is only kept if the dictionary hasn't been cleared
+ * since the read began, so a reader still on the old breeds can't put one of them back.
+ *
+ * A breed looked up inside a transaction may have been added by that very transaction, and go
+ * away again if it is rolled back. Other threads must not see its id before then, so it is only
+ * kept for the thread's own transaction, and shared once the caller reports through
+ * {@link #transactionEnded(SQLiteDatabase, boolean)} that the transaction has committed.
+ */
+class PetBreedDictionary {
+
+    /**
+     * What the calling thread's transaction has looked up or cleared, which isn't committed yet
+     */
+    private static final class PendingIds {
+        final HashMap<String, Long> ids = new HashMap<>();
+
+        /** Generation before the first of the ids was read */
+        long generation;
+
+        /** Whether the transaction empties the breeds table */
+        boolean cleared;
+    }
+
+    /** Ids of the breeds looked up so far, all of them committed. Changed only under this. */
+    private final ConcurrentHashMap<String, Long> mIds = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<PendingIds> mPendingIds = new ThreadLocal<PendingIds>() {
+        @Override
+        protected PendingIds initialValue() {
+            return new PendingIds();
+        }
+    };
+
+    /** Bumped whenever the dictionary is cleared, guarded by this */
+    private long mGeneration;
+
+    /** Whether a transaction emptying the breeds table is under way, guarded by this */
+    private boolean mClearing;
+
+    /**
+     * Returns the id of the given breed, adding it to the breeds table if it isn't there yet.
+     * Should be called on the writable database.
+     */
+    long idFor(SQLiteDatabase database, String breed) {
+        Long id = cachedId(database, breed);
+        if (id != null) {
+            return id;
+        }
+        SQLiteStatement insert = database.compileStatement("INSERT OR IGNORE INTO "
+                + PetSchema.BREEDS_TABLE_NAME + " ("
+                + PetContract.PetEntry.COLUMN_PET_BREED + ") VALUES (?)");
+        try {
+            insert.bindString(1, breed);
+            insert.executeInsert();
+        } finally {
+            insert.close();
+        }
+        return find(database, breed);
+    }
+
+    /**
+     * Returns the id of the given breed, or -1 if no pet has ever had it.
+     */
+    long find(SQLiteDatabase database, String breed) {
+        Long id = cachedId(database, breed);
+        if (id != null) {
+            return id;
+        }
+        long generation = generation();
+        SQLiteStatement query = database.compileStatement("SELECT "
+                + PetSchema.COLUMN_BREED_ID + " FROM " + PetSchema.BREEDS_TABLE_NAME
+                + " WHERE " + PetContract.PetEntry.COLUMN_PET_BREED + " = ?");
+        try {
+            query.bindString(1, breed);
+            long found = query.simpleQueryForLong();
+            if (database.inTransaction()) {
+                PendingIds pending = mPendingIds.get();
+                if (pending.ids.isEmpty()) {
+                    pending.generation = generation;
+                }
+                pending.ids.put(breed, found);
+            } else {
+                publish(Collections.singletonMap(breed, found), generation);
+            }
+            return found;
+        } catch (SQLiteDoneException e) {
+            // Unknown breeds aren't remembered, they may be added at any time
+            return -1;
+        } finally {
+            query.close();
+        }
+    }
+
+    /**
+     * Returns the id of the given breed if it has been looked up already, or null.
+     */
+    private Long cachedId(SQLiteDatabase database, String breed) {
+        Long id = mIds.get(breed);
+        if (id == null && database.inTransaction()) {
+            id = mPendingIds.get().ids.get(breed);
+        }
+        return id;
+    }
+
+    private synchronized long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * Share the given ids, unless the dictionary has been cleared since the given generation or
+     * is being cleared right now.
+     */
+    private synchronized void publish(Map<String, Long> ids, long generation) {
+        if (generation == mGeneration && !mClearing) {
+            mIds.putAll(ids);
+        }
+    }
+
+    /**
+     * Report that a transaction of the calling thread on the given database has ended. Once the
+     * outermost one has, the ids it looked up are shared if it committed and dropped otherwise.
+     * Nested transactions are left to the one that encloses them.
+     */
+    void transactionEnded(SQLiteDatabase database, boolean committed) {
+        if (database.inTransaction()) {
+            return;
+        }
+        PendingIds pending = mPendingIds.get();
+        if (pending.cleared) {
+            synchronized (this) {
+                // Readers may have looked up the old breeds until the commit, so forget once
+                // more whatever they put back, and let lookups be shared again
+                mGeneration++;
+                mClearing = false;
+                mIds.clear();
+            }
+        } else if (committed && !pending.ids.isEmpty()) {
+            publish(pending.ids, pending.generation);
+        }
+        pending.ids.clear();
+        pending.cleared = false;
+    }
+
+    /**
+     * Forget every id looked up so far, because the breeds table is being emptied. Must be
+     * called inside the transaction that empties it, once it has, so that no other writer can
+     * use an old id after the commit. The caller reports the end of the transaction through
+     * {@link #transactionEnded(SQLiteDatabase, boolean)} as usual.
+     */
+    void clear(SQLiteDatabase database) {
+        if (!database.inTransaction()) {
+            throw new IllegalStateException("The breeds can only be cleared in a transaction");
+        }
+        PendingIds pending = mPendingIds.get();
+        synchronized (this) {
+            mGeneration++;
+            mClearing = true;
+            mIds.clear();
+        }
+        pending.ids.clear();
+        pending.cleared = true;
+    }
+
+    /**
+     * Returns the given values as they are written to the pets table, with the breed replaced
+     * by its id. The values are returned as they are if they don't have a breed.
+     */
+    ContentValues toRow(SQLiteDatabase database, ContentValues values) {
+        if (!values.containsKey(PetContract.PetEntry.COLUMN_PET_BREED)) {
+            return values;
+        }
+        ContentValues row = new ContentValues(values);
+        String breed = row.getAsString(PetContract.PetEntry.COLUMN_PET_BREED);
+        row.remove(PetContract.PetEntry.COLUMN_PET_BREED);
+        if (breed == null) {
+            row.putNull(PetSchema.COLUMN_BREED_ID);
+        } else {
+            row.put(PetSchema.COLUMN_BREED_ID, idFor(database, breed));
+        }
+        return row;
+    }
+
+    /**
+     * Rewrite every "breed = ?" in a selection into a comparison of the breed id, see
+     * {@link PetSchema#translateBreeds}. The matching arguments in the given array are replaced
+     * by the ids, so the caller has to pass in its own copy.
+     */
+    String translateSelection(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        return PetSchema.translateBreeds(selection, selectionArgs, breedIds(database));
+    }
+
+    /**
+     * Returns the ids of the breeds as this dictionary finds them in the given database.
+     */
+    PetSchema.BreedIds breedIds(final SQLiteDatabase database) {
+        return new PetSchema.BreedIds() {
+            @Override
+            public long find(String breed) {
+                return PetBreedDictionary.this.find(database, breed);
+            }
+        };
+    }
+}
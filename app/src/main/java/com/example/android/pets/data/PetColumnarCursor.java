@@ -0,0 +1,242 @@
+package com.example.android.pets.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Read-only cursor that holds a result of the pets table column by column, in primitive arrays.
+ * The _id is kept in a long[], the gender and weight in int[]s, and the name and breed as indexes
+ * into one table of distinct strings, so a breed shared by thousands of pets is only stored once.
+ * A row takes a few dozen bytes this way, rather than a slot in a CursorWindow, and any row can
+ * be read at any time without the window being filled again.
+ *
+ * The cursor is built in one pass over a cursor from the database, see {@link #build(Cursor)},
+ * on whatever thread runs the query. Values are converted the way SQLite cursors convert them, so
+ * callers can't tell it apart from a cursor straight from the database.
+ */
+class PetColumnarCursor extends AbstractCursor {
+
+    /** How the values of a column are kept */
+    private static final int KIND_LONG = 0;
+    private static final int KIND_INT = 1;
+    private static final int KIND_STRING = 2;
+
+    /** String index of a null name or breed */
+    private static final int NULL_STRING = -1;
+
+    private final String[] mColumns;
+    private final int[] mKinds;
+    private final int mCount;
+
+    /** Values of each KIND_LONG column, null for the other columns */
+    private final long[][] mLongs;
+
+    /** Values of each KIND_INT column, or indexes into mStrings of each KIND_STRING column */
+    private final int[][] mInts;
+
+    /** Every distinct string of the result */
+    private final String[] mStrings;
+
+    private PetColumnarCursor(String[] columns, int[] kinds, int count, long[][] longs,
+                              int[][] ints, String[] strings) {
+        mColumns = columns;
+        mKinds = kinds;
+        mCount = count;
+        mLongs = longs;
+        mInts = ints;
+        mStrings = strings;
+    }
+
+    /**
+     * Read every row of the given cursor into a new columnar cursor, and close it. Returns null,
+     * leaving the given cursor as it is, if it has a column other than those of
+     * {@link PetRowCache#COLUMNS}, as only their types are known in advance.
+     */
+    static PetColumnarCursor build(Cursor source) {
+        String[] columns = source.getColumnNames();
+        int[] kinds = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            kinds[i] = kindOf(columns[i]);
+            if (kinds[i] < 0) {
+                return null;
+            }
+        }
+
+        try {
+            // Counting fills the source's first window, so this is where the query really runs
+            int count = source.getCount();
+            long[][] longs = new long[columns.length][];
+            int[][] ints = new int[columns.length][];
+            for (int i = 0; i < columns.length; i++) {
+                if (kinds[i] == KIND_LONG) {
+                    longs[i] = new long[count];
+                } else {
+                    ints[i] = new int[count];
+                }
+            }
+
+            HashMap<String, Integer> indexes = new HashMap<>();
+            ArrayList<String> strings = new ArrayList<>();
+            int row = 0;
+            source.moveToPosition(-1);
+            while (row < count && source.moveToNext()) {
+                for (int i = 0; i < columns.length; i++) {
+                    switch (kinds[i]) {
+                        case KIND_LONG:
+                            longs[i][row] = source.getLong(i);
+                            break;
+                        case KIND_INT:
+                            ints[i][row] = source.getInt(i);
+                            break;
+                        default:
+                            ints[i][row] = intern(source.getString(i), indexes, strings);
+                            break;
+                    }
+                }
+                row++;
+            }
+            return new PetColumnarCursor(columns, kinds, row, longs, ints,
+                    strings.toArray(new String[strings.size()]));
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Returns how the values of the given column are kept, or -1 if it isn't a pets column.
+     */
+    private static int kindOf(String column) {
+        switch (column) {
+            case PetContract.PetEntry._ID:
+                return KIND_LONG;
+            case PetContract.PetEntry.COLUMN_PET_GENDER:
+            case PetContract.PetEntry.COLUMN_PET_WEIGHT:
+                return KIND_INT;
+            case PetContract.PetEntry.COLUMN_PET_NAME:
+            case PetContract.PetEntry.COLUMN_PET_BREED:
+                return KIND_STRING;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Returns the index of the given string in the table, adding it if it isn't there yet.
+     */
+    private static int intern(String value, HashMap<String, Integer> indexes,
+                              ArrayList<String> strings) {
+        if (value == null) {
+            return NULL_STRING;
+        }
+        Integer index = indexes.get(value);
+        if (index == null) {
+            index = strings.size();
+            indexes.put(value, index);
+            strings.add(value);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the string held by a KIND_STRING column in the current row, or null.
+     */
+    private String stringAt(int column) {
+        int index = mInts[column][getPosition()];
+        return index != NULL_STRING ? mStrings[index] : null;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    @Override
+    public String getString(int column) {
+        switch (mKinds[column]) {
+            case KIND_LONG:
+                return String.valueOf(mLongs[column][getPosition()]);
+            case KIND_INT:
+                return String.valueOf(mInts[column][getPosition()]);
+            default:
+                return stringAt(column);
+        }
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        String value = getString(column);
+        return value != null ? value.getBytes() : null;
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        switch (mKinds[column]) {
+            case KIND_LONG:
+                return mLongs[column][getPosition()];
+            case KIND_INT:
+                return mInts[column][getPosition()];
+            default:
+                String value = stringAt(column);
+                if (value == null) {
+                    return 0;
+                }
+                try {
+                    return Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+        }
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        if (mKinds[column] != KIND_STRING) {
+            return getLong(column);
+        }
+        String value = stringAt(column);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public int getType(int column) {
+        if (mKinds[column] != KIND_STRING) {
+            return FIELD_TYPE_INTEGER;
+        }
+        return isNull(column) ? FIELD_TYPE_NULL : FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mKinds[column] == KIND_STRING && mInts[column][getPosition()] == NULL_STRING;
+    }
+}
@@ -55,6 +55,26 @@ public final class PetContract {
      */
     public static final String PATH_PETS = "pets";
 
+    /**
+     * Path appended to the pets path for searching pets by name and breed, as in
+     * content://com.example.android.pets/pets/search?q=...
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Paths appended to the pets path for the shelter statistics, as in
+     * content://com.example.android.pets/pets/stats and
+     * content://com.example.android.pets/pets/stats/breeds
+     */
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_BREEDS = "breeds";
+
+    /**
+     * Path appended to the pets path for exporting every pet as a file, as in
+     * content://com.example.android.pets/pets/export
+     */
+    public static final String PATH_EXPORT = "export";
+
     /**
      * Inner class that defines constant values for the pets database table.
      * Each entry in the table represents a single pet.
@@ -76,8 +96,254 @@ public final class PetContract {
         /** The content URI to access the pet data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
 
+        /**
+         * The content URI to search the pets by name and breed. The words to look for are given
+         * in the {@link #QUERY_PARAMETER_SEARCH} parameter, and every word also matches as the
+         * start of a longer one. Results come best match first, and
+         * {@link #QUERY_PARAMETER_LIMIT} can be used to cap their number.
+         */
+        public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * The content URI to export every pet as a stream, through
+         * {@link ContentResolver#openTypedAssetFileDescriptor} with one of the export formats, or
+         * {@link ContentResolver#openInputStream} for CSV. The pets are written into a pipe
+         * while the caller reads from it, so exports of any size use little memory.
+         */
+        public static final Uri EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /**
+         * CSV export format. A header row is followed by one row per pet, with the columns
+         * _id, name, breed, gender and weight. It can be imported again as it is.
+         */
+        public static final String EXPORT_FORMAT_CSV = "text/csv";
+
+        /**
+         * Compact binary export format, written with a DataOutputStream: the int
+         * {@link #EXPORT_BINARY_MAGIC} and the int {@link #EXPORT_BINARY_VERSION}, then for every
+         * pet the boolean true, the long _id, the name, a boolean telling whether there is a
+         * breed followed by the breed if there is, the byte gender and the int weight. Names and
+         * breeds are written as the int length of their UTF-8 bytes followed by the bytes. The
+         * boolean false ends the pets, a stream that ends without it was cut short by an error.
+         */
+        public static final String EXPORT_FORMAT_BINARY =
+                "application/vnd." + CONTENT_AUTHORITY + ".pets";
+
+        /** Start of a binary export ("PETS"), and the version of its format */
+        public static final int EXPORT_BINARY_MAGIC = 0x50455453;
+        public static final int EXPORT_BINARY_VERSION = 2;
+
+        /** Query parameter of {@link #SEARCH_URI} holding the words to search for */
+        public static final String QUERY_PARAMETER_SEARCH = "q";
+
+        /**
+         * Query parameter for {@link #CONTENT_URI} that turns the query into a single page of at
+         * most this many pets, ordered by name (ignoring case) and then by {@link #_ID}.
+         * The caller's sort order is ignored for paged queries.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameters for a paged query that give the name and {@link #_ID} of the last pet
+         * on the previous page. The page returned starts right after that pet.
+         */
+        public static final String QUERY_PARAMETER_AFTER_NAME = "after_name";
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /**
+         * Query parameter for {@link #CONTENT_URI} that turns an insert or bulk insert into an
+         * upsert when set to "true". A pet with the same name and breed, ignoring case and
+         * surrounding spaces, and the same gender as one that is already there updates that pet
+         * instead of adding another one, so importing the same pets twice doesn't duplicate them.
+         * The URI returned is that of the pet written, whether it was inserted or updated.
+         */
+        public static final String QUERY_PARAMETER_UPSERT = "upsert";
+
+        /**
+         * Query parameter for {@link #CONTENT_URI} that asks for the pets to be read into memory
+         * column by column when set to "true", and can be combined with paging. The result
+         * takes far less memory per pet than a cursor over the database and any of its rows can
+         * be read without going back to the database, which suits results that are kept around
+         * while the user scrolls through them. The projection may only hold the columns of this
+         * table, under their own names; otherwise the usual cursor is returned.
+         */
+        public static final String QUERY_PARAMETER_COLUMNAR = "columnar";
+
+        /**
+         * Method for {@link ContentResolver#call} that deletes every pet matching the criteria in
+         * its extras, in one go. The extras are keyed by column: {@link #COLUMN_PET_NAME} and
+         * {@link #COLUMN_PET_BREED} hold Strings, {@link #COLUMN_PET_GENDER} and
+         * {@link #COLUMN_PET_WEIGHT} ints. A pet has to match all of the criteria given, and at
+         * least one has to be given. The result holds {@link #KEY_DELETED_IDS} and
+         * {@link #KEY_DELETED_COUNT}.
+         */
+        public static final String METHOD_DELETE_PETS = "delete_pets";
+
+        /**
+         * Method for {@link ContentResolver#call} that deletes every pet at once. The tables are
+         * emptied as a whole instead of pet by pet and new pets start again from _id 1. The space
+         * the pets took up is given back the next time the database is opened. This can take a
+         * while for many pets, so call it off the main thread, for example through
+         * {@link PetWriteQueue}. The result holds
+         * {@link #KEY_DELETED_COUNT}.
+         */
+        public static final String METHOD_DELETE_ALL_PETS = "delete_all_pets";
+
+        /** The _ids of the pets that were deleted (long[]) */
+        public static final String KEY_DELETED_IDS = "deleted_ids";
+
+        /** Number of pets that were deleted (int) */
+        public static final String KEY_DELETED_COUNT = "deleted_count";
+
+        /**
+         * Method for {@link ContentResolver#call} that imports pets from a file, reading it a
+         * batch of pets at a time so that files of any size can be imported. The arg is the format of the
+         * file, {@link #IMPORT_FORMAT_CSV} or {@link #IMPORT_FORMAT_JSON}, and the extras hold:
+         * <ul>
+         * <li>{@link #KEY_IMPORT_FILE}, the file to read, which is closed afterwards</li>
+         * <li>optionally {@link #KEY_IMPORT_BATCH_SIZE}, the number of pets read and written at a time</li>
+         * <li>optionally {@link #KEY_IMPORT_UPSERT}, to update pets that are already there</li>
+         * <li>optionally {@link #KEY_PROGRESS_RECEIVER}, which is sent
+         * {@link #RESULT_IMPORT_PROGRESS} with the counts so far after every batch</li>
+         * </ul>
+         * CSV files start with a header row naming their columns. JSON files hold an array of
+         * objects with the pet columns as members. Gender may be given as its number or its name,
+         * and a missing gender or weight is taken as unknown or 0.
+         *
+         * Pets that are not valid are counted and skipped. The result holds
+         * {@link #KEY_IMPORTED_COUNT} and {@link #KEY_REJECTED_COUNT}.
+         */
+        public static final String METHOD_IMPORT_PETS = "import_pets";
+
+        /** Formats of an import */
+        public static final String IMPORT_FORMAT_CSV = "text/csv";
+        public static final String IMPORT_FORMAT_JSON = "application/json";
+
+        /** The file to import from (ParcelFileDescriptor) */
+        public static final String KEY_IMPORT_FILE = "import_file";
+
+        /** Number of pets an import reads and then writes in one transaction (int) */
+        public static final String KEY_IMPORT_BATCH_SIZE = "import_batch_size";
+
+        /**
+         * Whether an import updates the pets it already has rather than adding them again
+         * (boolean), as described in {@link #QUERY_PARAMETER_UPSERT}
+         */
+        public static final String KEY_IMPORT_UPSERT = "import_upsert";
+
+        /** Receives the progress of an import (ResultReceiver) */
+        public static final String KEY_PROGRESS_RECEIVER = "progress_receiver";
+
+        /** Result code of the progress updates of an import, sent with the counts so far */
+        public static final int RESULT_IMPORT_PROGRESS = 1;
+
+        /** Number of pets imported, and the number skipped for not being valid (int) */
+        public static final String KEY_IMPORTED_COUNT = "imported_count";
+        public static final String KEY_REJECTED_COUNT = "rejected_count";
+
+        /**
+         * Method for {@link ContentResolver#call} that reports how the provider has been doing
+         * since it started, or since the metrics were last reset. For every operation and URI
+         * that has seen use, the result holds a Bundle keyed "operation/uri", such as
+         * "query/pets" or "update/pet_id", with the {@code KEY_METRIC_*} values below.
+         * Latencies are in microseconds, and percentiles are only accurate to a power of two.
+         * Set {@link #KEY_RESET_METRICS} in the extras to start counting afresh afterwards.
+         */
+        public static final String METHOD_METRICS = "metrics";
+
+        /** Whether to reset the metrics once they have been read (boolean) */
+        public static final String KEY_RESET_METRICS = "reset";
+
+        /** Number of operations, the number that failed and the rows they returned or wrote (long) */
+        public static final String KEY_METRIC_COUNT = "count";
+        public static final String KEY_METRIC_ERRORS = "errors";
+        public static final String KEY_METRIC_ROWS = "rows";
+
+        /** Mean, median, 99th percentile and longest latency of the operations (long) */
+        public static final String KEY_METRIC_MEAN_MICROS = "mean_us";
+        public static final String KEY_METRIC_P50_MICROS = "p50_us";
+        public static final String KEY_METRIC_P99_MICROS = "p99_us";
+        public static final String KEY_METRIC_MAX_MICROS = "max_us";
+
+        /**
+         * Number of operations by latency (long[]). Entry i counts the operations that took
+         * less than 2^(i+1) microseconds but not less than 2^i, except that entry 0 starts at 0
+         * and the last entry has no upper bound.
+         */
+        public static final String KEY_METRIC_HISTOGRAM = "histogram";
+
+        /**
+         * Method for {@link ContentResolver#call} that returns the most recent slow queries,
+         * oldest first, as a list of Bundles under {@link #KEY_SLOW_QUERIES}. Each one holds the
+         * {@code KEY_SLOW_QUERY_*} values below. The values of the arguments are not kept, only
+         * their shape, such as "[int, text(5)]". Set {@link #KEY_CLEAR_SLOW_QUERIES} in the extras
+         * to empty the log afterwards.
+         */
+        public static final String METHOD_SLOW_QUERIES = "slow_queries";
+
+        /**
+         * Method for {@link ContentResolver#call} that sets the time a query has to take to be
+         * logged as slow, in microseconds, to {@link #KEY_SLOW_QUERY_THRESHOLD_MICROS} in the
+         * extras. A negative threshold stops queries being logged. The result holds the
+         * threshold under the same key.
+         */
+        public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "set_slow_query_threshold";
+
+        /** The slow queries (ArrayList of Bundle) */
+        public static final String KEY_SLOW_QUERIES = "slow_queries";
+
+        /** Whether to empty the slow query log once it has been read (boolean) */
+        public static final String KEY_CLEAR_SLOW_QUERIES = "clear";
+
+        /** Time a query has to take to be logged as slow (long) */
+        public static final String KEY_SLOW_QUERY_THRESHOLD_MICROS = "threshold_us";
+
+        /** When the slow query finished, in milliseconds since the epoch (long) */
+        public static final String KEY_SLOW_QUERY_TIME = "time";
+
+        /** The content URI that was queried (String) */
+        public static final String KEY_SLOW_QUERY_LABEL = "uri";
+
+        /** The SQL run and the shape of the arguments the caller gave (String) */
+        public static final String KEY_SLOW_QUERY_SQL = "sql";
+        public static final String KEY_SLOW_QUERY_ARGS = "args";
+
+        /** How long the query took (long) and the number of rows it returned (int) */
+        public static final String KEY_SLOW_QUERY_MICROS = "duration_us";
+        public static final String KEY_SLOW_QUERY_ROWS = "rows";
+
+        /**
+         * What EXPLAIN QUERY PLAN says about the SQL, one step per line (String). A step
+         * reading "SCAN TABLE pets" rather than "SEARCH TABLE pets USING INDEX ..." reads every
+         * pet.
+         */
+        public static final String KEY_SLOW_QUERY_PLAN = "plan";
+
+        /**
+         * Method for {@link ContentResolver#call} that reports how well the provider's cache of
+         * single pets is doing. The result holds the {@code KEY_CACHE_*} values below.
+         */
+        public static final String METHOD_ROW_CACHE_STATS = "row_cache_stats";
+
+        /**
+         * Method for {@link ContentResolver#call} that reports how well the provider's cache of
+         * query results on {@link #CONTENT_URI} is doing. The result holds the
+         * {@code KEY_CACHE_*} values below, with the size and capacity counted in bytes.
+         */
+        public static final String METHOD_QUERY_CACHE_STATS = "query_cache_stats";
+
+        /** Number of queries answered from the cache (int) */
+        public static final String KEY_CACHE_HIT_COUNT = "hit_count";
+
+        /** Number of queries that had to go to the database (int) */
+        public static final String KEY_CACHE_MISS_COUNT = "miss_count";
+
+        /** Size of the cache, and the most it holds (int) */
+        public static final String KEY_CACHE_SIZE = "size";
+        public static final String KEY_CACHE_CAPACITY = "capacity";
+
         /** Name of database table for pets */
-        public final static String TABLE_NAME = "pets";
+        public final static String TABLE_NAME = PetSchema.TABLE_NAME;
 
         /**
          * Unique ID number for the pet (only for use in the database table).
@@ -92,14 +358,14 @@ public final class PetContract {
          *
          * Type: TEXT
          */
-        public final static String COLUMN_PET_NAME ="name";
+        public final static String COLUMN_PET_NAME = PetSchema.COLUMN_NAME;
 
         /**
          * Breed of the pet.
          *
          * Type: TEXT
          */
-        public final static String COLUMN_PET_BREED = "breed";
+        public final static String COLUMN_PET_BREED = PetSchema.COLUMN_BREED;
 
         /**
          * Gender of the pet.
@@ -109,21 +375,21 @@ public final class PetContract {
          *
          * Type: INTEGER
          */
-        public final static String COLUMN_PET_GENDER = "gender";
+        public final static String COLUMN_PET_GENDER = PetSchema.COLUMN_GENDER;
 
         /**
          * Weight of the pet.
          *
          * Type: INTEGER
          */
-        public final static String COLUMN_PET_WEIGHT = "weight";
+        public final static String COLUMN_PET_WEIGHT = PetSchema.COLUMN_WEIGHT;
 
         /**
          * Possible values for the gender of the pet.
          */
-        public static final int GENDER_UNKNOWN = 0;
-        public static final int GENDER_MALE = 1;
-        public static final int GENDER_FEMALE = 2;
+        public static final int GENDER_UNKNOWN = PetSchema.GENDER_UNKNOWN;
+        public static final int GENDER_MALE = PetSchema.GENDER_MALE;
+        public static final int GENDER_FEMALE = PetSchema.GENDER_FEMALE;
 
         public static final String GENDER_STRING_UNKNOWN="Unknown";
         public static final String GENDER_STRING_MALE="Male";
@@ -133,5 +399,89 @@ public final class PetContract {
 
     }
 
+    /**
+     * Statistics over all pets in the shelter. Querying {@link #CONTENT_URI} returns a single row
+     * with the columns below. The numbers are kept up to date as pets are written, so reading
+     * them costs the same however many pets there are.
+     */
+    public static final class PetStatsEntry {
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the shelter statistics.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /** The content URI to access the shelter statistics in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * Method for {@link ContentResolver#call} that recounts the statistics from the pets
+         * table, for use should they ever get out of step with it.
+         */
+        public static final String METHOD_REBUILD_STATS = "rebuild_stats";
+
+        /**
+         * Total number of pets.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_COUNT = "total_count";
+
+        /**
+         * Number of pets of each gender.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_UNKNOWN_COUNT = "unknown_count";
+        public final static String COLUMN_MALE_COUNT = "male_count";
+        public final static String COLUMN_FEMALE_COUNT = "female_count";
+
+        /**
+         * Weight of all pets together.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_WEIGHT = "total_weight";
+
+        /**
+         * Average weight of a pet, 0 if there are no pets.
+         *
+         * Type: REAL
+         */
+        public final static String COLUMN_AVERAGE_WEIGHT = "average_weight";
+    }
+
+    /**
+     * Number of pets of each breed. Querying {@link #CONTENT_URI} returns a row per breed,
+     * the most common breed first unless another sort order is given.
+     */
+    public static final class BreedStatsEntry implements BaseColumns {
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the list of breeds.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_BREEDS;
+
+        /** The content URI to access the breed statistics in the provider */
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(PetStatsEntry.CONTENT_URI, PATH_BREEDS);
+
+        /**
+         * Breed, null for the pets that have no breed.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_BREED = "breed";
+
+        /**
+         * Number of pets of the breed.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PET_COUNT = "pet_count";
+    }
+
 }
 
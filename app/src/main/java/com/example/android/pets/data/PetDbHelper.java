@@ -1,10 +1,15 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import android.util.Log;
 
+import java.util.List;
+
 /**
  * Created by ismile on 5/25/2017.
  */
@@ -12,31 +17,133 @@ import android.util.Log;
 public class PetDbHelper extends SQLiteOpenHelper{
 
     public static final String LOG_TAG = PetDbHelper.class.getSimpleName();
-    private static final int DATABASE_VERSION=1;
+
+    /** Database version, see {@link PetSchema#VERSION} */
+    private static final int DATABASE_VERSION=PetSchema.VERSION;
     private static final String DATABASE_NAME="shelter.db";
-    // Create a String that contains the SQL statement to create the pets table
-    private static final String SQL_CREATE_PETS_TABLE =  "CREATE TABLE " + PetContract.PetEntry.TABLE_NAME + " ("
-            + PetContract.PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-            + PetContract.PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL, "
-            + PetContract.PetEntry.COLUMN_PET_BREED + " TEXT, "
-            + PetContract.PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
-            + PetContract.PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);";
-    private static final String SQL_DELETE_ENTRIES = "DROP TABLE " + DATABASE_NAME ;
+
+    /**
+     * Number of compiled statements every connection keeps. The default of 25 is fewer than the
+     * statements of PetStatementPool alone, which would push each other and the provider's
+     * queries out and have them compiled again, so leave room for those as well.
+     */
+    static final int SQL_CACHE_SIZE = Math.min(PetStatementPool.STATEMENT_COUNT + 25,
+            SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+
+    /** Free pages the database needs before opening it vacuums it, see reclaimFreeSpace() */
+    private static final int MIN_FREE_PAGES_TO_VACUUM = 256;
 
     public PetDbHelper(Context context){
-        super (context, DATABASE_NAME,null ,DATABASE_VERSION);
+        this(context, null);
+    }
+
+    /**
+     * Create a helper whose database makes its cursors with the given factory, or with the
+     * default one if it is null.
+     */
+    public PetDbHelper(Context context, SQLiteDatabase.CursorFactory factory){
+        super (context, DATABASE_NAME, factory, DATABASE_VERSION);
 
+        // With write-ahead logging readers see the last committed data and no longer wait for a
+        // writer to finish, and the framework keeps a pool of connections for concurrent reads.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
     }
+
+    @Override
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        super.onConfigure(sqLiteDatabase);
+        configureConnection(sqLiteDatabase);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        super.onOpen(sqLiteDatabase);
+        // onConfigure() and setWriteAheadLoggingEnabled() only exist from Jelly Bean on,
+        // so older releases have to switch the database over once it is open.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            sqLiteDatabase.enableWriteAheadLogging();
+            configureConnection(sqLiteDatabase);
+        }
+        if (!sqLiteDatabase.isReadOnly()) {
+            reclaimFreeSpace(sqLiteDatabase);
+        }
+    }
+
+    /**
+     * Give the space of deleted pets back once most of the file is free, as after deleting all
+     * pets. VACUUM rewrites the whole file, which takes long and fails with SQLITE_BUSY while a
+     * cursor is reading, so it isn't run right after the delete but here, before anyone else can
+     * use the database. Until then new pets simply reuse the free pages.
+     */
+    private static void reclaimFreeSpace(SQLiteDatabase sqLiteDatabase) {
+        long freePages = DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA freelist_count", null);
+        long pages = DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA page_count", null);
+        if (freePages < MIN_FREE_PAGES_TO_VACUUM || freePages * 2 < pages) {
+            return;
+        }
+        try {
+            sqLiteDatabase.execSQL("VACUUM");
+        } catch (SQLException e) {
+            // The pets are all there, only the file stays as big as it was until the next try
+            Log.e(LOG_TAG, "cannot vacuum " + freePages + " free pages of " + pages, e);
+        }
+    }
+
+    /**
+     * Tune the primary connection, which is the one every write goes through, see
+     * {@link PetSchema#connectionPragmas()}, and give every connection a statement cache of
+     * {@link #SQL_CACHE_SIZE}. The pragmas go through execSQL(), which always runs on the
+     * primary connection. A query could be handed to one of the pooled read connections instead.
+     */
+    private static void configureConnection(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.setMaxSqlCacheSize(SQL_CACHE_SIZE);
+        for (String pragma : PetSchema.connectionPragmas()) {
+            sqLiteDatabase.execSQL(pragma);
+        }
+    }
+
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
-        Log.e(LOG_TAG,SQL_CREATE_PETS_TABLE);
-        sqLiteDatabase.execSQL(SQL_CREATE_PETS_TABLE);
+        Log.e(LOG_TAG,PetSchema.SQL_CREATE_PETS_TABLE);
+        execAll(sqLiteDatabase, PetSchema.createTables());
 
     }
 
+    /**
+     * Delete every pet by dropping the pets table and all the tables that shadow it and creating
+     * them again empty, see {@link PetSchema#truncateTables()}. Unlike a DELETE, this doesn't
+     * have to run the triggers for every pet. Should be called inside a transaction.
+     */
+    static void truncatePets(SQLiteDatabase sqLiteDatabase) {
+        execAll(sqLiteDatabase, PetSchema.truncateTables());
+    }
+
+    /**
+     * Upgrade the database so that it keeps all of its pets and ends up with the same schema as
+     * a newly created one, see {@link PetSchema#upgradeTables(int)}.
+     */
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
-        sqLiteDatabase.execSQL(SQL_DELETE_ENTRIES);
-        onCreate(sqLiteDatabase);
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        Log.i(LOG_TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
+        execAll(sqLiteDatabase, PetSchema.upgradeTables(oldVersion));
+    }
+
+    /**
+     * Recount the statistics tables from scratch from the pets table, see
+     * {@link PetSchema#rebuildStats()}. Should be called inside a transaction.
+     */
+    static void rebuildStats(SQLiteDatabase sqLiteDatabase) {
+        execAll(sqLiteDatabase, PetSchema.rebuildStats());
+    }
+
+    /**
+     * Run the given statements in order.
+     */
+    private static void execAll(SQLiteDatabase sqLiteDatabase, List<String> statements) {
+        for (String sql : statements) {
+            sqLiteDatabase.execSQL(sql);
+        }
     }
 }
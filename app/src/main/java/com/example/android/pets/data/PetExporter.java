@@ -0,0 +1,189 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes every pet into the pipe of an export, in one of the formats of
+ * {@link PetContract.PetEntry#EXPORT_URI}. It runs on the background thread the provider's pipe
+ * helper starts for it.
+ *
+ * The pets are read in chunks ordered by _id, each one starting after the last pet of the one
+ * before. Only one chunk is in memory at a time, and no read transaction is held open for the
+ * whole export, which would keep the write-ahead log from being checkpointed.
+ */
+class PetExporter implements ContentProvider.PipeDataWriter<Void> {
+
+    private static final String LOG_TAG = PetExporter.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Number of pets read from the database at a time */
+    private static final int CHUNK_SIZE = 1000;
+
+    /** Size of the buffer in front of the pipe */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String[] COLUMNS = {
+            PetContract.PetEntry._ID,
+            PetContract.PetEntry.COLUMN_PET_NAME,
+            PetContract.PetEntry.COLUMN_PET_BREED,
+            PetContract.PetEntry.COLUMN_PET_GENDER,
+            PetContract.PetEntry.COLUMN_PET_WEIGHT };
+
+    private final SQLiteOpenHelper mDbHelper;
+
+    PetExporter(SQLiteOpenHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                Bundle opts, Void args) {
+        OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(output.getFileDescriptor()), BUFFER_SIZE);
+        try {
+            if (PetContract.PetEntry.EXPORT_FORMAT_BINARY.equals(mimeType)) {
+                writeBinary(new DataOutputStream(out));
+            } else {
+                writeCsv(new BufferedWriter(new OutputStreamWriter(out, UTF_8)));
+            }
+        } catch (IOException e) {
+            // Most likely the reader closed its end of the pipe before the export was done
+            Log.e(LOG_TAG, "export of " + uri + " as " + mimeType + " stopped", e);
+        } catch (RuntimeException e) {
+            // The database failed us, for example with an SQLiteException. This runs on the pipe
+            // helper's own thread, where nothing else would catch it and the whole process would
+            // go down, so end the export here. Closing the pipe leaves the reader with a stream
+            // that ends early, a binary one without its closing false.
+            Log.e(LOG_TAG, "export of " + uri + " as " + mimeType + " failed", e);
+        } finally {
+            try {
+                output.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "cannot close export pipe", e);
+            }
+        }
+    }
+
+    private void writeCsv(Writer writer) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        writer.write("\r\n");
+
+        long lastId = -1;
+        int count;
+        do {
+            Cursor cursor = queryChunk(lastId);
+            try {
+                count = 0;
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    writer.write(Long.toString(lastId));
+                    writer.write(',');
+                    writeCsvField(writer, cursor.getString(1));
+                    writer.write(',');
+                    if (!cursor.isNull(2)) {
+                        writeCsvField(writer, cursor.getString(2));
+                    }
+                    writer.write(',');
+                    writer.write(Integer.toString(cursor.getInt(3)));
+                    writer.write(',');
+                    writer.write(Integer.toString(cursor.getInt(4)));
+                    writer.write("\r\n");
+                    count++;
+                }
+            } finally {
+                cursor.close();
+            }
+        } while (count == CHUNK_SIZE);
+        writer.flush();
+    }
+
+    /**
+     * Write a CSV field, quoting it if it holds a comma, a quote or a line break.
+     */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+                && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private void writeBinary(DataOutputStream out) throws IOException {
+        out.writeInt(PetContract.PetEntry.EXPORT_BINARY_MAGIC);
+        out.writeInt(PetContract.PetEntry.EXPORT_BINARY_VERSION);
+
+        long lastId = -1;
+        int count;
+        do {
+            Cursor cursor = queryChunk(lastId);
+            try {
+                count = 0;
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    out.writeBoolean(true);
+                    out.writeLong(lastId);
+                    writeBinaryString(out, cursor.getString(1));
+                    boolean hasBreed = !cursor.isNull(2);
+                    out.writeBoolean(hasBreed);
+                    if (hasBreed) {
+                        writeBinaryString(out, cursor.getString(2));
+                    }
+                    out.writeByte(cursor.getInt(3));
+                    out.writeInt(cursor.getInt(4));
+                    count++;
+                }
+            } finally {
+                cursor.close();
+            }
+        } while (count == CHUNK_SIZE);
+        out.writeBoolean(false);
+        out.flush();
+    }
+
+    /**
+     * Write a string as the int length of its UTF-8 bytes followed by the bytes. Unlike
+     * writeUTF() this has no limit of 65535 bytes, which names and breeds can exceed.
+     */
+    private static void writeBinaryString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Query the chunk of pets that comes after the pet with the given _id. It is a range scan
+     * of the table's primary key, so every chunk costs the same.
+     */
+    private Cursor queryChunk(long afterId) {
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        return database.query(PetSchema.PETS_WITH_BREEDS, COLUMNS,
+                PetContract.PetEntry._ID + " > ?", new String[]{String.valueOf(afterId)},
+                null, null, PetContract.PetEntry._ID, String.valueOf(CHUNK_SIZE));
+    }
+}
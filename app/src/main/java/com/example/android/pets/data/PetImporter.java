@@ -0,0 +1,293 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads pets one at a time from a CSV or JSON file, so that a file of any size can be imported
+ * without holding more than one pet in memory. See {@link PetContract.PetEntry#METHOD_IMPORT_PETS}
+ * for the formats.
+ *
+ * Only the format of each pet is checked here. Whether the values make a valid pet is left to the
+ * provider, which applies the same rules as to any other insert.
+ */
+abstract class PetImporter implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Returns an importer reading the given stream in the given format, one of
+     * {@link PetContract.PetEntry#IMPORT_FORMAT_CSV} and
+     * {@link PetContract.PetEntry#IMPORT_FORMAT_JSON}.
+     */
+    static PetImporter create(InputStream in, String format) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+        if (PetContract.PetEntry.IMPORT_FORMAT_CSV.equals(format)) {
+            return new CsvImporter(reader);
+        } else if (PetContract.PetEntry.IMPORT_FORMAT_JSON.equals(format)) {
+            return new JsonImporter(reader);
+        }
+        reader.close();
+        throw new IllegalArgumentException("Cannot import pets from format " + format);
+    }
+
+    /**
+     * Returns the values of the next pet in the file, or null if there are no more.
+     *
+     * @throws IllegalArgumentException if the pet is not in the right format. The pet is skipped
+     *                                  and the next call returns the pet after it.
+     * @throws IOException              if the file can't be read any further
+     */
+    abstract ContentValues next() throws IOException;
+
+    /**
+     * Turn the fields of one pet, as read from the file, into the values to insert. Any of them
+     * may be null if the file doesn't have them. A missing gender or weight takes the same value
+     * the database would give it.
+     */
+    static ContentValues toValues(String name, String breed, String gender, String weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetContract.PetEntry.COLUMN_PET_NAME, name != null ? name.trim() : null);
+        if (breed != null) {
+            values.put(PetContract.PetEntry.COLUMN_PET_BREED, breed.trim());
+        }
+        values.put(PetContract.PetEntry.COLUMN_PET_GENDER, parseGender(gender));
+        values.put(PetContract.PetEntry.COLUMN_PET_WEIGHT, parseWeight(weight));
+        return values;
+    }
+
+    /**
+     * Gender may be given as its number or as its name, such as "Male".
+     */
+    private static int parseGender(String gender) {
+        if (gender == null || gender.trim().length() == 0) {
+            return PetContract.PetEntry.GENDER_UNKNOWN;
+        }
+        gender = gender.trim();
+        if (gender.equalsIgnoreCase(PetContract.PetEntry.GENDER_STRING_UNKNOWN)) {
+            return PetContract.PetEntry.GENDER_UNKNOWN;
+        } else if (gender.equalsIgnoreCase(PetContract.PetEntry.GENDER_STRING_MALE)) {
+            return PetContract.PetEntry.GENDER_MALE;
+        } else if (gender.equalsIgnoreCase(PetContract.PetEntry.GENDER_STRING_FEMALE)) {
+            return PetContract.PetEntry.GENDER_FEMALE;
+        }
+        try {
+            return Integer.parseInt(gender);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unknown gender " + gender);
+        }
+    }
+
+    private static int parseWeight(String weight) {
+        if (weight == null || weight.trim().length() == 0) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(weight.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Weight is not a number: " + weight);
+        }
+    }
+
+    /**
+     * Reads pets from CSV as described in RFC 4180. The first record is a header naming the
+     * columns, which may come in any order; columns with other names are ignored.
+     */
+    private static final class CsvImporter extends PetImporter {
+        private final BufferedReader mReader;
+
+        /** Position of each pet column in a record, or -1 if the file doesn't have it */
+        private int mNameIndex = -1;
+        private int mBreedIndex = -1;
+        private int mGenderIndex = -1;
+        private int mWeightIndex = -1;
+
+        CsvImporter(BufferedReader reader) throws IOException {
+            mReader = reader;
+            List<String> header = readRecord();
+            if (header == null) {
+                // An empty file holds no pets
+                return;
+            }
+            for (int i = 0; i < header.size(); i++) {
+                String column = header.get(i).trim();
+                if (column.equalsIgnoreCase(PetContract.PetEntry.COLUMN_PET_NAME)) {
+                    mNameIndex = i;
+                } else if (column.equalsIgnoreCase(PetContract.PetEntry.COLUMN_PET_BREED)) {
+                    mBreedIndex = i;
+                } else if (column.equalsIgnoreCase(PetContract.PetEntry.COLUMN_PET_GENDER)) {
+                    mGenderIndex = i;
+                } else if (column.equalsIgnoreCase(PetContract.PetEntry.COLUMN_PET_WEIGHT)) {
+                    mWeightIndex = i;
+                }
+            }
+            if (mNameIndex == -1) {
+                throw new IOException("CSV header has no " + PetContract.PetEntry.COLUMN_PET_NAME
+                        + " column");
+            }
+        }
+
+        @Override
+        ContentValues next() throws IOException {
+            List<String> record;
+            do {
+                record = readRecord();
+                if (record == null) {
+                    return null;
+                }
+                // Skip blank lines
+            } while (record.size() == 1 && record.get(0).length() == 0);
+
+            return toValues(field(record, mNameIndex), field(record, mBreedIndex),
+                    field(record, mGenderIndex), field(record, mWeightIndex));
+        }
+
+        private static String field(List<String> record, int index) {
+            return index >= 0 && index < record.size() ? record.get(index) : null;
+        }
+
+        /**
+         * Read the fields of the next record, or return null at the end of the file. Quoted
+         * fields may hold commas, line breaks and doubled quotes.
+         */
+        private List<String> readRecord() throws IOException {
+            int c = mReader.read();
+            if (c == -1) {
+                return null;
+            }
+
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("CSV file ends inside a quoted field");
+                    } else if (c == '"') {
+                        mReader.mark(1);
+                        if (mReader.read() == '"') {
+                            field.append('"');
+                        } else {
+                            mReader.reset();
+                            quoted = false;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\r' || c == '\n' || c == -1) {
+                    if (c == '\r') {
+                        // Swallow the \n of a \r\n line break
+                        mReader.mark(1);
+                        if (mReader.read() != '\n') {
+                            mReader.reset();
+                        }
+                    }
+                    fields.add(field.toString());
+                    return fields;
+                } else {
+                    field.append((char) c);
+                }
+                c = mReader.read();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mReader.close();
+        }
+    }
+
+    /**
+     * Reads pets from a JSON array of objects, each with any of the pet columns as its members.
+     * Other members are ignored.
+     */
+    private static final class JsonImporter extends PetImporter {
+        private final JsonReader mReader;
+        private boolean mStarted;
+
+        JsonImporter(BufferedReader reader) {
+            mReader = new JsonReader(reader);
+        }
+
+        @Override
+        ContentValues next() throws IOException {
+            if (!mStarted) {
+                mReader.beginArray();
+                mStarted = true;
+            }
+            if (!mReader.hasNext()) {
+                return null;
+            }
+            if (mReader.peek() != JsonToken.BEGIN_OBJECT) {
+                mReader.skipValue();
+                throw new IllegalArgumentException("Pet is not a JSON object");
+            }
+
+            // Read the whole object before checking it, so a bad pet is skipped completely
+            String name = null;
+            String breed = null;
+            String gender = null;
+            String weight = null;
+            String badMember = null;
+            mReader.beginObject();
+            while (mReader.hasNext()) {
+                String member = mReader.nextName();
+                JsonToken token = mReader.peek();
+                if (token == JsonToken.NULL) {
+                    mReader.nextNull();
+                } else if (token == JsonToken.BEGIN_ARRAY || token == JsonToken.BEGIN_OBJECT) {
+                    // Not a value any pet column can hold, but the rest of the pet still has
+                    // to be read past
+                    mReader.skipValue();
+                    badMember = member;
+                } else if (member.equals(PetContract.PetEntry.COLUMN_PET_NAME)) {
+                    name = nextString();
+                } else if (member.equals(PetContract.PetEntry.COLUMN_PET_BREED)) {
+                    breed = nextString();
+                } else if (member.equals(PetContract.PetEntry.COLUMN_PET_GENDER)) {
+                    gender = nextString();
+                } else if (member.equals(PetContract.PetEntry.COLUMN_PET_WEIGHT)) {
+                    weight = nextString();
+                } else {
+                    mReader.skipValue();
+                }
+            }
+            mReader.endObject();
+            if (badMember != null) {
+                throw new IllegalArgumentException("Pet has an array or object as its "
+                        + badMember);
+            }
+            return toValues(name, breed, gender, weight);
+        }
+
+        /**
+         * Read a string, number or boolean as a string.
+         */
+        private String nextString() throws IOException {
+            if (mReader.peek() == JsonToken.BOOLEAN) {
+                return String.valueOf(mReader.nextBoolean());
+            }
+            return mReader.nextString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mReader.close();
+        }
+    }
+}
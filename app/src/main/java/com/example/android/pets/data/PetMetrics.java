@@ -0,0 +1,174 @@
+package com.example.android.pets.data;
+
+import android.os.Bundle;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for the provider's operations, kept separately for every
+ * operation and URI. Recording only updates atomic counters, never takes a lock and never
+ * allocates, so it is cheap enough to leave on in production.
+ *
+ * Latencies go into buckets by powers of two of microseconds, so percentiles are read off with
+ * the precision of a factor of two, which is plenty for spotting a regression.
+ */
+class PetMetrics {
+
+    /** Operations that are measured */
+    static final int OP_QUERY = 0;
+    static final int OP_INSERT = 1;
+    static final int OP_BULK_INSERT = 2;
+    static final int OP_UPDATE = 3;
+    static final int OP_DELETE = 4;
+    static final int OP_APPLY_BATCH = 5;
+    static final int OP_CALL = 6;
+
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulk_insert", "update", "delete", "apply_batch", "call" };
+
+    /**
+     * Number of latency buckets. Bucket i holds latencies below 2^(i+1) microseconds, and the
+     * last one everything longer, which is over half an hour.
+     */
+    private static final int BUCKETS = 32;
+
+    /** Counters of every operation and URI, at these offsets from the start of their slot */
+    private static final int COUNT = 0;
+    private static final int ERRORS = 1;
+    private static final int ROWS = 2;
+    private static final int TOTAL_MICROS = 3;
+    private static final int MAX_MICROS = 4;
+    private static final int HISTOGRAM = 5;
+    private static final int SLOT_SIZE = HISTOGRAM + BUCKETS;
+
+    /** Names of the URIs, the last one standing for operations on any other URI or on none */
+    private final String[] mUriNames;
+
+    private final AtomicLongArray mCounters;
+
+    /**
+     * Create metrics for the given URIs. Operations are recorded against the index of their
+     * URI in this array, or against any index outside of it if their URI didn't match or they
+     * have none.
+     */
+    PetMetrics(String[] uriNames) {
+        mUriNames = new String[uriNames.length + 1];
+        System.arraycopy(uriNames, 0, mUriNames, 0, uriNames.length);
+        mUriNames[uriNames.length] = "other";
+        mCounters = new AtomicLongArray(OPERATION_NAMES.length * mUriNames.length * SLOT_SIZE);
+    }
+
+    /**
+     * Record one operation on the URI with the given index that started at the given
+     * {@link System#nanoTime()} and has just finished.
+     *
+     * @param rows   the number of rows returned or written
+     * @param failed whether the operation failed
+     */
+    void record(int operation, int uriIndex, long startNanos, long rows, boolean failed) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        int slot = slot(operation, uriIndex);
+
+        mCounters.incrementAndGet(slot + COUNT);
+        if (failed) {
+            mCounters.incrementAndGet(slot + ERRORS);
+        }
+        if (rows > 0) {
+            mCounters.addAndGet(slot + ROWS, rows);
+        }
+        mCounters.addAndGet(slot + TOTAL_MICROS, micros);
+        long max;
+        do {
+            max = mCounters.get(slot + MAX_MICROS);
+        } while (micros > max && !mCounters.compareAndSet(slot + MAX_MICROS, max, micros));
+        mCounters.incrementAndGet(slot + HISTOGRAM + bucket(micros));
+    }
+
+    /**
+     * Set every counter back to zero. Operations that finish while this runs may be partly
+     * counted.
+     */
+    void reset() {
+        for (int i = 0; i < mCounters.length(); i++) {
+            mCounters.set(i, 0);
+        }
+    }
+
+    /**
+     * Returns a bundle with an entry for every operation and URI that has been recorded since
+     * the last reset, keyed "operation/uri", as described in
+     * {@link PetContract.PetEntry#METHOD_METRICS}.
+     */
+    Bundle toBundle() {
+        Bundle result = new Bundle();
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int uriIndex = 0; uriIndex < mUriNames.length; uriIndex++) {
+                int slot = slot(operation, uriIndex);
+                long count = mCounters.get(slot + COUNT);
+                if (count == 0) {
+                    continue;
+                }
+
+                long[] histogram = new long[BUCKETS];
+                long histogramCount = 0;
+                for (int i = 0; i < BUCKETS; i++) {
+                    histogram[i] = mCounters.get(slot + HISTOGRAM + i);
+                    histogramCount += histogram[i];
+                }
+
+                Bundle metrics = new Bundle();
+                metrics.putLong(PetContract.PetEntry.KEY_METRIC_COUNT, count);
+                metrics.putLong(PetContract.PetEntry.KEY_METRIC_ERRORS,
+                        mCounters.get(slot + ERRORS));
+                metrics.putLong(PetContract.PetEntry.KEY_METRIC_ROWS, mCounters.get(slot + ROWS));
+                metrics.putLong(PetContract.PetEntry.KEY_METRIC_MEAN_MICROS,
+                        mCounters.get(slot + TOTAL_MICROS) / count);
+                metrics.putLong(PetContract.PetEntry.KEY_METRIC_P50_MICROS,
+                        percentile(histogram, histogramCount, 50));
+                metrics.putLong(PetContract.PetEntry.KEY_METRIC_P99_MICROS,
+                        percentile(histogram, histogramCount, 99));
+                metrics.putLong(PetContract.PetEntry.KEY_METRIC_MAX_MICROS,
+                        mCounters.get(slot + MAX_MICROS));
+                metrics.putLongArray(PetContract.PetEntry.KEY_METRIC_HISTOGRAM, histogram);
+                result.putBundle(OPERATION_NAMES[operation] + "/" + mUriNames[uriIndex], metrics);
+            }
+        }
+        return result;
+    }
+
+    private int slot(int operation, int uriIndex) {
+        if (uriIndex < 0 || uriIndex >= mUriNames.length - 1) {
+            uriIndex = mUriNames.length - 1;
+        }
+        return (operation * mUriNames.length + uriIndex) * SLOT_SIZE;
+    }
+
+    /**
+     * Returns the bucket of a latency, the number of bits needed for it less one.
+     */
+    private static int bucket(long micros) {
+        if (micros <= 1) {
+            return 0;
+        }
+        return Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+    }
+
+    /**
+     * Returns the upper bound of the bucket the given percentile falls in.
+     */
+    private static long percentile(long[] histogram, long count, int percent) {
+        if (count == 0) {
+            return 0;
+        }
+        // Rank of the operation at the percentile, rounded up
+        long rank = (count * percent + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return 1L << (i + 1);
+            }
+        }
+        return 1L << histogram.length;
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loader that reads the pets one page at a time, using the keyset paging of the pets content URI.
+ * It starts with the first page and fetches another one each time {@link #loadNextPage()} is
+ * called, so only the part of the catalog the user has scrolled through is ever in memory.
+ *
+ * The pages are delivered as one cursor over all of them. Pages that are still current are kept
+ * between results, and only a change to the pets data makes the loader query them all again.
+ * The projection must include {@link PetContract.PetEntry#_ID} and
+ * {@link PetContract.PetEntry#COLUMN_PET_NAME}, which form the key of every page, as well as
+ * {@link PetContract.PetEntry#COLUMN_PET_BREED}. Every page is copied for
+ * {@link PetRecyclerAdapter} as soon as it is read, so the adapter never reads the cursor itself.
+ */
+public class PetPageLoader extends AsyncTaskLoader<Cursor> {
+
+    /**
+     * One page of pets together with the key of its last row and the adapter's copy of its
+     * rows, which are read on the loader thread so the cursor never has to be moved once the UI
+     * is using it.
+     */
+    private static final class Page {
+        final Cursor cursor;
+        final List<PetRecyclerAdapter.PetItem> items;
+        final String lastName;
+        final long lastId;
+        final boolean full;
+
+        Page(Cursor cursor, List<PetRecyclerAdapter.PetItem> items, String lastName, long lastId,
+                boolean full) {
+            this.cursor = cursor;
+            this.items = items;
+            this.lastName = lastName;
+            this.lastId = lastId;
+            this.full = full;
+        }
+    }
+
+    /**
+     * Cursor over all pages of one result. Closing is left to the loader, as pages are shared
+     * with the result before it.
+     */
+    private static final class PagedCursor extends MergeCursor
+            implements PetRecyclerAdapter.SnapshotCursor {
+        final List<Page> pages;
+        final int changeCount;
+        private final List<PetRecyclerAdapter.PetItem> mItems;
+
+        PagedCursor(List<Page> pages, int changeCount) {
+            super(toCursors(pages));
+            this.pages = pages;
+            this.changeCount = changeCount;
+            int count = 0;
+            for (Page page : pages) {
+                count += page.items.size();
+            }
+            mItems = new ArrayList<>(count);
+            for (Page page : pages) {
+                mItems.addAll(page.items);
+            }
+        }
+
+        @Override
+        public List<PetRecyclerAdapter.PetItem> getSnapshot() {
+            return mItems;
+        }
+
+        private static Cursor[] toCursors(List<Page> pages) {
+            Cursor[] cursors = new Cursor[pages.size()];
+            for (int i = 0; i < cursors.length; i++) {
+                cursors[i] = pages.get(i).cursor;
+            }
+            return cursors;
+        }
+    }
+
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private final String[] mProjection;
+    private final int mPageSize;
+
+    /** The result delivered last, or null if there is none yet */
+    private PagedCursor mCursor;
+
+    /** Pages of the result delivered last */
+    private volatile List<Page> mPages = Collections.emptyList();
+
+    /** Number of pages the next load should end up with */
+    private volatile int mPageCount = 1;
+
+    /** Number of times the pets data has changed, and the count the last result was loaded at */
+    private volatile int mChangeCount;
+    private volatile int mDeliveredChangeCount;
+
+    public PetPageLoader(Context context, String[] projection, int pageSize) {
+        super(context);
+        mProjection = projection;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Ask for one more page after the ones loaded so far. Returns false if the last page already
+     * reached the end of the pets, or if the next page is already on its way.
+     */
+    public boolean loadNextPage() {
+        List<Page> pages = mPages;
+        if (pages.isEmpty() || !pages.get(pages.size() - 1).full || mPageCount > pages.size()) {
+            return false;
+        }
+        mPageCount = pages.size() + 1;
+        forceLoad();
+        return true;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        int changeCount = mChangeCount;
+        int pageCount = mPageCount;
+        List<Page> delivered = mPages;
+        List<Page> pages = new ArrayList<>(pageCount);
+
+        // If nothing has changed since the last result, its pages are still good and only the
+        // pages after them need to be read. Otherwise start over from the first page.
+        if (changeCount == mDeliveredChangeCount && !delivered.isEmpty()
+                && delivered.size() < pageCount) {
+            pages.addAll(delivered);
+        }
+
+        while (pages.size() < pageCount) {
+            Page last = pages.isEmpty() ? null : pages.get(pages.size() - 1);
+            if (last != null && !last.full) {
+                // There are no more pets after a page that isn't full
+                break;
+            }
+            Page page = queryPage(last);
+            if (pages.isEmpty()) {
+                // Every page is queried on the same URI, so watching the first one is enough
+                page.cursor.registerContentObserver(mObserver);
+            }
+            pages.add(page);
+        }
+        return new PagedCursor(pages, changeCount);
+    }
+
+    /**
+     * Query the page that comes right after the given one, or the first page if it is null.
+     */
+    private Page queryPage(Page after) {
+        Uri.Builder builder = PetContract.PetEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_LIMIT,
+                        String.valueOf(mPageSize))
+                // Pages stay in memory as long as the result does, so keep them compact
+                .appendQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_COLUMNAR, "true");
+        if (after != null) {
+            builder.appendQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_AFTER_NAME,
+                    after.lastName);
+            builder.appendQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_AFTER_ID,
+                    String.valueOf(after.lastId));
+        }
+
+        Cursor cursor = getContext().getContentResolver().query(builder.build(), mProjection,
+                null, null, null);
+        if (cursor == null) {
+            cursor = new MatrixCursor(mProjection);
+        }
+
+        // Reading the count makes sure the page has been read here, on the loader thread
+        int count = cursor.getCount();
+        List<PetRecyclerAdapter.PetItem> items = PetRecyclerAdapter.snapshot(cursor);
+        String lastName = null;
+        long lastId = -1;
+        if (count > 0) {
+            PetRecyclerAdapter.PetItem last = items.get(count - 1);
+            lastName = last.name;
+            lastId = last.id;
+        }
+        return new Page(cursor, items, lastName, lastId, count >= mPageSize);
+    }
+
+    @Override
+    public void deliverResult(Cursor data) {
+        PagedCursor result = (PagedCursor) data;
+        if (isReset()) {
+            // An async query came in while the loader is stopped
+            if (result != null) {
+                releasePages(result.pages, Collections.<Page>emptyList());
+            }
+            return;
+        }
+
+        List<Page> oldPages = mPages;
+        mCursor = result;
+        mPages = result.pages;
+        mDeliveredChangeCount = result.changeCount;
+
+        if (isStarted()) {
+            super.deliverResult(result);
+        }
+        releasePages(oldPages, mPages);
+    }
+
+    @Override
+    public void onCanceled(Cursor data) {
+        if (data != null) {
+            releasePages(((PagedCursor) data).pages, mPages);
+        }
+    }
+
+    @Override
+    public void onContentChanged() {
+        // Every page may be out of date now, so the next load has to read them all again
+        mChangeCount++;
+        super.onContentChanged();
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mCursor != null) {
+            deliverResult(mCursor);
+        }
+        if (takeContentChanged() || mCursor == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        // Attempt to cancel the current load task if possible
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        // Ensure the loader is stopped
+        onStopLoading();
+
+        releasePages(mPages, Collections.<Page>emptyList());
+        mPages = Collections.emptyList();
+        mPageCount = 1;
+        mCursor = null;
+    }
+
+    /**
+     * Close the cursors of the given pages, except for those that are also in the pages to keep.
+     */
+    private static void releasePages(List<Page> pages, List<Page> keep) {
+        for (Page page : pages) {
+            if (!keep.contains(page) && !page.cursor.isClosed()) {
+                page.cursor.close();
+            }
+        }
+    }
+}
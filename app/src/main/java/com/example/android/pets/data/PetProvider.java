@@ -1,16 +1,39 @@
 package com.example.android.pets.data;
 
+import android.content.ClipDescription;
+import android.content.ComponentName;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.ResultReceiver;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -20,12 +43,151 @@ import java.util.Set;
 public class PetProvider extends ContentProvider {
 
     private PetDbHelper mDbHelper;
+
+    /** Precompiled statements for inserting, updating and deleting single pets */
+    private PetStatementPool mStatements;
+
+    /** Ids of the breeds, which the pets table stores instead of the breeds themselves */
+    private final PetBreedDictionary mBreeds = new PetBreedDictionary();
+
+    /** Counters and latencies of every operation on the provider */
+    private final PetMetrics mMetrics = new PetMetrics(METRICS_URI_NAMES);
+
+    /** Log of slow queries, which also makes the database's cursors to see their SQL */
+    private final PetSlowQueryLog mSlowQueryLog = new PetSlowQueryLog();
+
+    /** Cache of recently read pets, serving queries for a single pet */
+    private PetRowCache mRowCache;
+
+    /** Name of the provider meta-data giving the number of pets the row cache holds */
+    private static final String META_DATA_ROW_CACHE_CAPACITY =
+            "com.example.android.pets.ROW_CACHE_CAPACITY";
+
+    /** Number of pets the row cache holds if the manifest doesn't say */
+    private static final int DEFAULT_ROW_CACHE_CAPACITY = 128;
+
+    /** Cache of recent results of queries on the whole pets table */
+    private PetQueryCache mQueryCache;
+
+    /** Name of the provider meta-data giving the bytes the query cache may take up */
+    private static final String META_DATA_QUERY_CACHE_BYTES =
+            "com.example.android.pets.QUERY_CACHE_BYTES";
+
+    /** Bytes the query cache may take up if the manifest doesn't say */
+    private static final int DEFAULT_QUERY_CACHE_BYTES = 1024 * 1024;
+
     /** URI matcher code for the content URI for the pets table */
     private static final int PETS = 100;
 
     /** URI matcher code for the content URI for a single pet in the pets table */
     private static final int PET_ID = 101;
 
+    /** URI matcher code for the content URI for searching the pets by name and breed */
+    private static final int PET_SEARCH = 102;
+
+    /** URI matcher code for the content URI for the shelter statistics */
+    private static final int PET_STATS = 103;
+
+    /** URI matcher code for the content URI for the number of pets of each breed */
+    private static final int BREED_STATS = 104;
+
+    /** URI matcher code for the content URI for exporting every pet */
+    private static final int PET_EXPORT = 105;
+
+    /** Names the metrics use for the URIs, indexed by URI matcher code less {@link #PETS} */
+    private static final String[] METRICS_URI_NAMES = {
+            "pets", "pet_id", "search", "stats", "breed_stats", "export" };
+
+    /** Formats pets can be exported in */
+    private static final String[] EXPORT_FORMATS = {
+            PetContract.PetEntry.EXPORT_FORMAT_CSV,
+            PetContract.PetEntry.EXPORT_FORMAT_BINARY };
+
+    /** Number of rows written by bulkInsert() before it offers to yield the database lock */
+    private static final int BULK_INSERT_YIELD_INTERVAL = 500;
+
+    /** Name column as compared by paged queries, matching the collation of the name index */
+    private static final String PAGE_NAME_KEY = PetSchema.PAGE_NAME_KEY;
+
+    /** Order of paged queries, the name index keeps its entries in exactly this order */
+    private static final String PAGE_SORT_ORDER = PetSchema.PAGE_SORT_ORDER;
+
+    /**
+     * Columns of a pet, which queries that don't ask for any in particular get. The pets table
+     * also has the key used by upserts and the id of the breed, which are none of the caller's
+     * business.
+     */
+    private static final String[] PET_COLUMNS = PetSchema.petColumns();
+
+    /**
+     * Maps the pet columns onto the pets table and the breeds table of a search, as the search
+     * table has a name and a breed column of its own.
+     */
+    private static final Map<String, String> sSearchProjectionMap = new HashMap<>();
+
+    static {
+        for (String column : PET_COLUMNS) {
+            String table = column.equals(PetContract.PetEntry.COLUMN_PET_BREED)
+                    ? PetSchema.BREEDS_TABLE_NAME : PetContract.PetEntry.TABLE_NAME;
+            sSearchProjectionMap.put(column, table + "." + column + " AS " + column);
+        }
+    }
+
+    /**
+     * Maps the statistics columns onto sums over the per-gender statistics table, which only
+     * ever has one row per gender.
+     */
+    private static final Map<String, String> sPetStatsProjectionMap = new HashMap<>();
+
+    /** Maps the breed statistics columns onto the breed statistics table */
+    private static final Map<String, String> sBreedStatsProjectionMap = new HashMap<>();
+
+    /** Order of the breed statistics when the caller doesn't ask for one */
+    private static final String BREED_STATS_SORT_ORDER =
+            PetSchema.COLUMN_STATS_PET_COUNT + " DESC";
+
+    static {
+        String count = PetSchema.COLUMN_STATS_PET_COUNT;
+        String weight = PetSchema.COLUMN_STATS_WEIGHT_TOTAL;
+        String gender = PetSchema.COLUMN_STATS_GENDER;
+        sPetStatsProjectionMap.put(PetContract.PetStatsEntry.COLUMN_TOTAL_COUNT,
+                "IFNULL(SUM(" + count + "), 0) AS " + PetContract.PetStatsEntry.COLUMN_TOTAL_COUNT);
+        sPetStatsProjectionMap.put(PetContract.PetStatsEntry.COLUMN_UNKNOWN_COUNT,
+                "IFNULL(SUM(CASE WHEN " + gender + " = " + PetContract.PetEntry.GENDER_UNKNOWN
+                        + " THEN " + count + " END), 0) AS "
+                        + PetContract.PetStatsEntry.COLUMN_UNKNOWN_COUNT);
+        sPetStatsProjectionMap.put(PetContract.PetStatsEntry.COLUMN_MALE_COUNT,
+                "IFNULL(SUM(CASE WHEN " + gender + " = " + PetContract.PetEntry.GENDER_MALE
+                        + " THEN " + count + " END), 0) AS "
+                        + PetContract.PetStatsEntry.COLUMN_MALE_COUNT);
+        sPetStatsProjectionMap.put(PetContract.PetStatsEntry.COLUMN_FEMALE_COUNT,
+                "IFNULL(SUM(CASE WHEN " + gender + " = " + PetContract.PetEntry.GENDER_FEMALE
+                        + " THEN " + count + " END), 0) AS "
+                        + PetContract.PetStatsEntry.COLUMN_FEMALE_COUNT);
+        sPetStatsProjectionMap.put(PetContract.PetStatsEntry.COLUMN_TOTAL_WEIGHT,
+                "IFNULL(SUM(" + weight + "), 0) AS " + PetContract.PetStatsEntry.COLUMN_TOTAL_WEIGHT);
+        sPetStatsProjectionMap.put(PetContract.PetStatsEntry.COLUMN_AVERAGE_WEIGHT,
+                "CASE WHEN SUM(" + count + ") > 0 THEN CAST(SUM(" + weight + ") AS REAL) / SUM("
+                        + count + ") ELSE 0 END AS " + PetContract.PetStatsEntry.COLUMN_AVERAGE_WEIGHT);
+
+        sBreedStatsProjectionMap.put(PetContract.BreedStatsEntry._ID,
+                "rowid AS " + PetContract.BreedStatsEntry._ID);
+        sBreedStatsProjectionMap.put(PetContract.BreedStatsEntry.COLUMN_BREED,
+                "NULLIF(" + PetSchema.COLUMN_STATS_BREED + ", '') AS "
+                        + PetContract.BreedStatsEntry.COLUMN_BREED);
+        sBreedStatsProjectionMap.put(PetContract.BreedStatsEntry.COLUMN_PET_COUNT,
+                count + " AS " + PetContract.BreedStatsEntry.COLUMN_PET_COUNT);
+    }
+
+    /** Number of pets an import commits at a time if the caller doesn't say */
+    private static final int DEFAULT_IMPORT_BATCH_SIZE = 1000;
+
+    /** Number of single-pet notifications above which a batch reports the whole collection */
+    private static final int MAX_ITEM_NOTIFICATIONS = 20;
+
+    /** Change notifications held back while a batch is being applied on the current thread */
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
     /** Tag for the log messages */
     public static final String LOG_TAG = PetProvider.class.getSimpleName();
 
@@ -46,6 +208,15 @@ public class PetProvider extends ContentProvider {
         // TODO: Add 2 content URIs to URI matcher
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS, PETS);
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PET_ID);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH, PET_SEARCH);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_STATS, PET_STATS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_STATS + "/" + PetContract.PATH_BREEDS,
+                BREED_STATS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT, PET_EXPORT);
 
     }
 
@@ -60,33 +231,106 @@ public class PetProvider extends ContentProvider {
         // TODO: Create and initialize a PetDbHelper object to gain access to the pets database.
         // Make sure the variable is a global variable, so it can be referenced from other
         // ContentProvider methods.
-        mDbHelper = new PetDbHelper(getContext());
+        mDbHelper = new PetDbHelper(getContext(), mSlowQueryLog);
+        mStatements = new PetStatementPool(mDbHelper);
+        Bundle metaData = readMetaData();
+        mRowCache = new PetRowCache(readPositiveInt(metaData, META_DATA_ROW_CACHE_CAPACITY,
+                DEFAULT_ROW_CACHE_CAPACITY));
+        mQueryCache = new PetQueryCache(readPositiveInt(metaData, META_DATA_QUERY_CACHE_BYTES,
+                DEFAULT_QUERY_CACHE_BYTES));
         return true;
     }
 
+    /**
+     * Read the provider's meta-data from the manifest, or return null if it has none.
+     */
+    private Bundle readMetaData() {
+        try {
+            ProviderInfo info = getContext().getPackageManager().getProviderInfo(
+                    new ComponentName(getContext(), PetProvider.class),
+                    PackageManager.GET_META_DATA);
+            return info.metaData;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e(LOG_TAG, "cannot read provider meta-data", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the positive int value of the given meta-data, or the default value if it is
+     * missing or not positive.
+     */
+    private static int readPositiveInt(Bundle metaData, String name, int defaultValue) {
+        int value = metaData != null ? metaData.getInt(name, defaultValue) : defaultValue;
+        return value > 0 ? value : defaultValue;
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
-        // Get readable database
+        long startNanos = System.nanoTime();
+        boolean failed = false;
+        mSlowQueryLog.begin();
+
+        // Get readable database. Queries run outside of any transaction, so with write-ahead
+        // logging they are handed one of the pool's read connections and never wait for a writer.
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor=null;
 
+        // URI the cursor is told to watch for changes
+        Uri notificationUri = uri;
+
         // Figure out if the URI matcher can match the URI to a specific code
+        final int match = sUriMatcher.match(uri);
         try {
-            int match = sUriMatcher.match(uri);
             switch (match) {
                 case PETS:
                     // For the PETS code, query the pets table directly with the given
                     // projection, selection, selection arguments, and sort order. The cursor
                     // could contain multiple rows of the pets table.
                     // TODO: Perform database query on pets table
-                    cursor = database.query(PetContract.PetEntry.TABLE_NAME, projection, selection,
-                            selectionArgs, null, null, sortOrder);
+                    if (projection == null) {
+                        projection = PET_COLUMNS;
+                    }
+                    // Asking for the same pets again is answered from the query cache until
+                    // the pets are next written. Columnar results skip it, as the cache would
+                    // box every value of them again.
+                    boolean columnar = uri.getBooleanQueryParameter(
+                            PetContract.PetEntry.QUERY_PARAMETER_COLUMNAR, false);
+                    String cacheKey = null;
+                    if (!columnar) {
+                        cacheKey = PetQueryCache.key(uri, projection, selection, selectionArgs,
+                                sortOrder);
+                        cursor = mQueryCache.get(cacheKey);
+                        if (cursor != null) {
+                            break;
+                        }
+                    }
+
+                    long generation = mQueryCache.generation();
+                    // Breeds are compared by their ids, which needs no lookup in the breeds table
+                    String[] whereArgs = selectionArgs != null ? selectionArgs.clone() : null;
+                    String where = mBreeds.translateSelection(database, selection, whereArgs);
+                    String limit = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_LIMIT);
+                    if (limit != null) {
+                        cursor = queryPetsPage(database, uri, projection, where, whereArgs, limit);
+                    } else {
+                        cursor = database.query(PetSchema.PETS_WITH_BREEDS, projection,
+                                where, whereArgs, null, null, sortOrder);
+                    }
+                    if (columnar) {
+                        Cursor columns = PetColumnarCursor.build(cursor);
+                        if (columns != null) {
+                            cursor = columns;
+                        }
+                    } else {
+                        cursor = mQueryCache.put(cacheKey, cursor, generation);
+                    }
 
                     break;
                 case PET_ID:
@@ -101,20 +345,215 @@ public class PetProvider extends ContentProvider {
                     selection = PetContract.PetEntry._ID + "=?";
                     selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
 
-                    // This will perform a query on the pets table where the _id equals 3 to return a
-                    // Cursor containing that row of the table.
-                    cursor = database.query(PetContract.PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                            null, null, sortOrder);
+                    // Single pets are read through the row cache, which only goes to the
+                    // database if the pet isn't in it.
+                    cursor = queryPetById(database, ContentUris.parseId(uri), projection);
+                    if (cursor == null) {
+                        // This will perform a query on the pets table where the _id equals 3 to return a
+                        // Cursor containing that row of the table.
+                        cursor = database.query(PetSchema.PETS_WITH_BREEDS, projection, selection, selectionArgs,
+                                null, null, sortOrder);
+                    }
+                    break;
+                case PET_SEARCH:
+                    // Search results depend on every pet, so watch the whole collection
+                    // rather than the search URI, which single-pet changes are not reported on.
+                    notificationUri = PetContract.PetEntry.CONTENT_URI;
+                    cursor = searchPets(database, uri, projection, selection, selectionArgs);
+                    break;
+                case PET_STATS:
+                    // The statistics are read from the summary tables, so they take the same
+                    // time however many pets there are. They change with every pet.
+                    notificationUri = PetContract.PetEntry.CONTENT_URI;
+                    SQLiteQueryBuilder statsBuilder = new SQLiteQueryBuilder();
+                    statsBuilder.setTables(PetSchema.GENDER_STATS_TABLE_NAME);
+                    statsBuilder.setProjectionMap(sPetStatsProjectionMap);
+                    cursor = statsBuilder.query(database, projection, null, null, null, null, null);
+                    break;
+                case BREED_STATS:
+                    notificationUri = PetContract.PetEntry.CONTENT_URI;
+                    SQLiteQueryBuilder breedBuilder = new SQLiteQueryBuilder();
+                    breedBuilder.setTables(PetSchema.BREED_STATS_TABLE_NAME);
+                    breedBuilder.setProjectionMap(sBreedStatsProjectionMap);
+                    cursor = breedBuilder.query(database, projection, selection, selectionArgs,
+                            null, null, TextUtils.isEmpty(sortOrder) ? BREED_STATS_SORT_ORDER : sortOrder);
                     break;
                 default:
                     throw new IllegalArgumentException("Cannot query unknown URI " + uri);
             }
         } catch (Exception e) {
             Log.e(LOG_TAG, "inside query", e);
+            failed = true;
+        }
+
+        // Set notification URI on the Cursor, so we know what content URI the Cursor was
+        // created for. If the data at this URI changes, then we know we need to update the Cursor.
+        int rows = 0;
+        if (cursor != null) {
+            cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+            // SQLite cursors only run their query when first read. Counting the rows runs it
+            // here, which the caller would have to do anyway, so the time recorded is the time
+            // the query really took.
+            rows = cursor.getCount();
         }
+        mMetrics.record(PetMetrics.OP_QUERY, match - PETS, startNanos, rows,
+                failed || cursor == null);
+        mSlowQueryLog.finish(database, uri.toString(), selectionArgs,
+                (System.nanoTime() - startNanos) / 1000, rows);
         return cursor;
     }
 
+    /**
+     * Read a single pet through the row cache. On a miss the whole row is read from the database
+     * and cached. Returns null if the projection asks for a column the cache doesn't hold, in
+     * which case the caller has to query the database itself.
+     */
+    private Cursor queryPetById(SQLiteDatabase database, long id, String[] projection) {
+        Object[] row = mRowCache.get(id);
+        if (row != null) {
+            return PetRowCache.toCursor(row, projection);
+        }
+
+        // Take the generation before reading, so a write that lands in between keeps this
+        // possibly stale row out of the cache
+        long generation = mRowCache.generation();
+        Cursor cursor = database.rawQuery(PetSchema.SQL_QUERY_PET_BY_ID,
+                new String[]{String.valueOf(id)});
+        try {
+            if (cursor.moveToFirst()) {
+                row = new Object[PetRowCache.COLUMNS.length];
+                row[0] = cursor.getLong(0);
+                row[1] = cursor.getString(1);
+                row[2] = cursor.getString(2);
+                row[3] = cursor.getInt(3);
+                row[4] = cursor.getInt(4);
+                mRowCache.put(id, row, generation);
+            }
+        } finally {
+            cursor.close();
+        }
+        return PetRowCache.toCursor(row, projection);
+    }
+
+    /**
+     * Query one page of pets. Pages are ordered by name and _id, and each page seeks straight past
+     * the last pet of the previous page using the name index instead of skipping over an OFFSET,
+     * so every page costs the same however far into the list it is.
+     */
+    private Cursor queryPetsPage(SQLiteDatabase database, Uri uri, String[] projection,
+                                 String selection, String[] selectionArgs, String limit) {
+        int pageSize = Integer.parseInt(limit);
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive: " + uri);
+        }
+
+        StringBuilder where = new StringBuilder();
+        ArrayList<String> args = new ArrayList<>();
+        if (!TextUtils.isEmpty(selection)) {
+            where.append('(').append(selection).append(')');
+            if (selectionArgs != null) {
+                Collections.addAll(args, selectionArgs);
+            }
+        }
+
+        String afterName = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_AFTER_NAME);
+        if (afterName != null) {
+            String afterId = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_AFTER_ID);
+            if (afterId == null) {
+                throw new IllegalArgumentException("Page key requires both a name and an id: " + uri);
+            }
+            // The first term is a range the index can seek to, the second one skips the pets
+            // that share the last name but were already on the previous page.
+            if (where.length() > 0) {
+                where.append(" AND ");
+            }
+            where.append(PAGE_NAME_KEY).append(" >= ? AND (")
+                    .append(PAGE_NAME_KEY).append(" > ? OR ")
+                    .append(PetContract.PetEntry._ID).append(" > ?)");
+            args.add(afterName);
+            args.add(afterName);
+            args.add(afterId);
+        }
+
+        return database.query(PetSchema.PETS_WITH_BREEDS, projection,
+                where.length() > 0 ? where.toString() : null,
+                args.toArray(new String[args.size()]), null, null, PAGE_SORT_ORDER,
+                String.valueOf(pageSize));
+    }
+
+    /**
+     * Search the pets by name and breed through the full-text search table. Every word of the
+     * search has to match, either as a whole word or as the start of one. The results are
+     * ranked as {@link PetSchema#searchTables(int, int)} describes.
+     */
+    private Cursor searchPets(SQLiteDatabase database, Uri uri, String[] projection,
+                              String selection, String[] selectionArgs) {
+        String match = buildSearchMatch(
+                uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_SEARCH));
+        if (match == null) {
+            // Nothing to search for, so nothing is found
+            return new MatrixCursor(projection != null ? projection
+                    : sSearchProjectionMap.keySet().toArray(new String[sSearchProjectionMap.size()]));
+        }
+
+        // The MATCH is in the tables, which come before the selection
+        ArrayList<String> args = new ArrayList<>();
+        args.add(match);
+        if (!TextUtils.isEmpty(selection) && selectionArgs != null) {
+            Collections.addAll(args, selectionArgs);
+        }
+
+        // Only the best matches are joined to the pets, as many as the caller asked for. A
+        // selection may filter some of them out, so with one they all have to be joined.
+        String limit = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_LIMIT);
+        int rankedLimit = 0;
+        if (TextUtils.isEmpty(selection) && limit != null && TextUtils.isDigitsOnly(limit)) {
+            try {
+                rankedLimit = Integer.parseInt(limit);
+            } catch (NumberFormatException e) {
+                // Too big to be a limit at all
+            }
+        }
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(PetSchema.searchTables(match.split(" ").length, rankedLimit));
+        builder.setProjectionMap(sSearchProjectionMap);
+        return builder.query(database, projection, TextUtils.isEmpty(selection) ? null : selection,
+                args.toArray(new String[args.size()]), null, null, PetSchema.SEARCH_SORT_ORDER,
+                limit);
+    }
+
+    /**
+     * Turn what the user typed into a full-text MATCH expression, where every word is a prefix
+     * query and all of them have to match. Anything that isn't a letter or a digit separates
+     * words, so the user can't type FTS operators by accident. Returns null if there are no words.
+     */
+    private static String buildSearchMatch(String query) {
+        if (query == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        int length = query.length();
+        int i = 0;
+        while (i < length) {
+            // Skip to the start of the next word
+            while (i < length && !Character.isLetterOrDigit(query.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(query.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(query, start, i).append('*');
+            }
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
     /**
      * Insert a pet into the database with the given content values. Return the new content URI
      * for that specific row in the database.
@@ -149,10 +588,11 @@ public class PetProvider extends ContentProvider {
             throw new IllegalArgumentException("Pet need to have positive weight");
         }
 
+        if (uri.getBooleanQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_UPSERT, false)) {
+            return upsertPet(values);
+        }
 
-        // Gets the database in write mode
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-        long newRowId = database.insert(PetContract.PetEntry.TABLE_NAME, null, values);
+        long newRowId = insertPetRow(values);
         if (newRowId == -1){
             Log.e(LOG_TAG, "*************cannot insert");
         }
@@ -161,18 +601,173 @@ public class PetProvider extends ContentProvider {
         return ContentUris.withAppendedId(uri, newRowId);
     }
 
+    /**
+     * Write a new row with the given values, which have already been validated. Returns its _id,
+     * or -1 if it could not be written.
+     */
+    private long insertPetRow(ContentValues values) {
+        // Gets the database in write mode
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ContentValues row = mBreeds.toRow(database, values);
+        if (PetStatementPool.columnMask(row) != -1) {
+            // The usual case, the values only hold pet columns, so a precompiled statement
+            // can write them
+            try {
+                return mStatements.insert(row);
+            } catch (SQLException e) {
+                Log.e(LOG_TAG, "insert " + values, e);
+                return -1;
+            }
+        }
+        return database.insert(PetContract.PetEntry.TABLE_NAME, null, row);
+    }
+
+    /**
+     * Update the pet with the same key as the given values, or insert a new one if there is
+     * none. The values have already been validated. SQLite only has ON CONFLICT DO UPDATE from
+     * 3.24 on, far newer than the releases we support, so the pet is looked up by its key first.
+     * That is a single lookup in the key index and saves the caller a query of its own. Of
+     * several pets with the same key, the oldest one is updated.
+     */
+    private Uri upsertPet(ContentValues values) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long id;
+        boolean successful = false;
+        // The lookup and the write share the write lock, or two upserts of the same pet could
+        // both miss it and both insert it
+        database.beginTransactionNonExclusive();
+        try {
+            id = mStatements.findByKey(
+                    values.getAsString(PetContract.PetEntry.COLUMN_PET_NAME),
+                    values.getAsString(PetContract.PetEntry.COLUMN_PET_BREED),
+                    values.getAsInteger(PetContract.PetEntry.COLUMN_PET_GENDER));
+            if (id == -1) {
+                id = insertPetRow(values);
+            } else {
+                try {
+                    ContentValues row = mBreeds.toRow(database, values);
+                    if (PetStatementPool.columnMask(row) != -1) {
+                        mStatements.updateById(id, row);
+                    } else {
+                        database.update(PetContract.PetEntry.TABLE_NAME, row,
+                                PetContract.PetEntry._ID + "=?", new String[]{String.valueOf(id)});
+                    }
+                } catch (SQLException e) {
+                    Log.e(LOG_TAG, "upsert " + values, e);
+                    id = -1;
+                }
+            }
+            // A failed write has already been undone by SQLite, and committing rather than
+            // rolling back keeps a transaction this one is nested in, such as a bulk insert's,
+            // from being rolled back with it
+            database.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            database.endTransaction();
+            mBreeds.transactionEnded(database, successful);
+        }
+        return ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, id);
+    }
+
     /**
      * Insert new data into the provider with the given ContentValues.
      */
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        long startNanos = System.nanoTime();
         final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return insertPet(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        Uri newUri = null;
+        try {
+            switch (match) {
+                case PETS:
+                    newUri = insertPet(uri, contentValues);
+                    if (ContentUris.parseId(newUri) != -1) {
+                        // Notify all listeners that a pet has been added at its new content URI
+                        notifyPetsChanged(newUri);
+                    }
+                    return newUri;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            boolean inserted = newUri != null && ContentUris.parseId(newUri) != -1;
+            mMetrics.record(PetMetrics.OP_INSERT, match - PETS, startNanos, inserted ? 1 : 0,
+                    !inserted);
+        }
+    }
+
+    /**
+     * Insert a set of pets into the provider in one go. Every row is validated and written by
+     * {@link #insertPet(Uri, ContentValues)}, but they share a transaction so the database only
+     * has to be synced now and then, see {@link #bulkInsertPets}. Return the number of rows
+     * that were inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long startNanos = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        int numInserted = -1;
+        try {
+            switch (match) {
+                case PETS:
+                    numInserted = bulkInsertPets(uri, values);
+                    return numInserted;
+                default:
+                    throw new IllegalArgumentException("Bulk insertion is not supported for " + uri);
+            }
+        } finally {
+            mMetrics.record(PetMetrics.OP_BULK_INSERT, match - PETS, startNanos, numInserted,
+                    numInserted < 0);
+        }
+    }
+
+    /**
+     * Insert all of the given pets inside one transaction. Every
+     * {@link #BULK_INSERT_YIELD_INTERVAL} rows the transaction may be committed to let other
+     * threads in, so if a row fails validation only the rows after the last such commit are
+     * rolled back. The exception is passed on to the caller, and observers still hear about the
+     * rows that were kept.
+     */
+    private int bulkInsertPets(Uri uri, ContentValues[] values) {
+        // Gets the database in write mode
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int numInserted = 0;
+
+        boolean successful = false;
+        boolean yielded = false;
+        boolean deferring = beginDeferredNotifications();
+        // A non-exclusive transaction lets readers on other connections carry on while we write
+        database.beginTransactionNonExclusive();
+        try {
+            for (int i = 0; i < values.length; i++) {
+                Uri newUri = insertPet(uri, values[i]);
+                if (ContentUris.parseId(newUri) != -1) {
+                    numInserted++;
+                }
+
+                // Every so often give other threads waiting on the database a chance to run,
+                // so that a large import doesn't starve the catalog of reads.
+                if ((i + 1) % BULK_INSERT_YIELD_INTERVAL == 0 && yieldTransaction(database)
+                        && !yielded) {
+                    // The rows so far are committed and stay even if a later one fails
+                    yielded = true;
+                    notifyPetsChanged(PetContract.PetEntry.CONTENT_URI);
+                }
+            }
+            database.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            database.endTransaction();
+            mBreeds.transactionEnded(database, successful);
+            // Let any listeners know that the pets table has changed, once for the whole set
+            if (successful && numInserted > 0) {
+                notifyPetsChanged(PetContract.PetEntry.CONTENT_URI);
+            }
+            if (deferring) {
+                endDeferredNotifications(successful || yielded);
+            }
         }
+        return numInserted;
     }
 
 
@@ -224,7 +819,22 @@ public class PetProvider extends ContentProvider {
             }
         }
 
-        int result = db.update(PetContract.PetEntry.TABLE_NAME,values,selection,selectionArgs);
+        ContentValues row = mBreeds.toRow(db, values);
+        int result;
+        if (sUriMatcher.match(uri) == PET_ID && PetStatementPool.columnMask(row) != -1) {
+            // A single pet is updated with a precompiled statement
+            result = mStatements.updateById(ContentUris.parseId(uri), row);
+        } else {
+            String[] whereArgs = selectionArgs != null ? selectionArgs.clone() : null;
+            result = db.update(PetContract.PetEntry.TABLE_NAME, row,
+                    petsTableSelection(db, selection, whereArgs), whereArgs);
+        }
+
+        // If 1 or more rows were updated, then notify all listeners that the data at the
+        // given URI has changed
+        if (result != 0) {
+            notifyPetsChanged(uri);
+        }
         return result;
     }
 
@@ -234,19 +844,29 @@ public class PetProvider extends ContentProvider {
      */
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        long startNanos = System.nanoTime();
         final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
-            case PET_ID:
-                // For the PET_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
-                selection = PetContract.PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updatePet(uri, contentValues, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Update is not supported for " + uri);
+        int rowsUpdated = -1;
+        try {
+            switch (match) {
+                case PETS:
+                    rowsUpdated = updatePet(PetContract.PetEntry.CONTENT_URI, contentValues,
+                            selection, selectionArgs);
+                    return rowsUpdated;
+                case PET_ID:
+                    // For the PET_ID code, extract out the ID from the URI,
+                    // so we know which row to update. Selection will be "_id=?" and selection
+                    // arguments will be a String array containing the actual ID.
+                    selection = PetContract.PetEntry._ID + "=?";
+                    selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                    rowsUpdated = updatePet(uri, contentValues, selection, selectionArgs);
+                    return rowsUpdated;
+                default:
+                    throw new IllegalArgumentException("Update is not supported for " + uri);
+            }
+        } finally {
+            mMetrics.record(PetMetrics.OP_UPDATE, match - PETS, startNanos, rowsUpdated,
+                    rowsUpdated < 0);
         }
     }
 
@@ -256,27 +876,537 @@ public class PetProvider extends ContentProvider {
      */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long startNanos = System.nanoTime();
+        boolean failed = false;
+
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
+        // Track the number of rows that were deleted
+        int rowsDeleted = 0;
+
         final int match = sUriMatcher.match(uri);
         try {
             switch (match) {
                 case PETS:
                     // Delete all rows that match the selection and selection args
-                    return database.delete(PetContract.PetEntry.TABLE_NAME, selection, selectionArgs);
+                    String[] whereArgs = selectionArgs != null ? selectionArgs.clone() : null;
+                    rowsDeleted = database.delete(PetContract.PetEntry.TABLE_NAME,
+                            petsTableSelection(database, selection, whereArgs), whereArgs);
+                    break;
                 case PET_ID:
-                    // Delete a single row given by the ID in the URI
-                    selection = PetContract.PetEntry._ID + "=?";
-                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                    return database.delete(PetContract.PetEntry.TABLE_NAME, selection, selectionArgs);
+                    // Delete a single row given by the ID in the URI, with a precompiled statement
+                    rowsDeleted = mStatements.deleteById(ContentUris.parseId(uri));
+                    break;
                 default:
                     throw new IllegalArgumentException("Deletion is not supported for " + uri);
             }
         } catch ( Exception e) {
             Log.e(LOG_TAG, "delete database " + uri.toString() + " selection=" + selection, e);
+            failed = true;
+        }
+        mMetrics.record(PetMetrics.OP_DELETE, match - PETS, startNanos, rowsDeleted, failed);
+
+        // If 1 or more rows were deleted, then notify all listeners that the data at the
+        // given URI has changed. A single pet is reported on its own URI, anything else
+        // on the whole collection.
+        if (rowsDeleted != 0) {
+            notifyPetsChanged(match == PET_ID ? uri : PetContract.PetEntry.CONTENT_URI);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Apply a batch of insert, update and delete operations inside one transaction. Operations can
+     * refer back to the results of earlier ones in the same batch. If any operation fails, for
+     * example because a pet doesn't pass validation, none of the batch is written.
+     *
+     * Operations marked with {@link ContentProviderOperation#isYieldAllowed()} are yield points:
+     * the work done so far is committed there if another thread is waiting for the database, and
+     * is kept even if a later operation fails.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long startNanos = System.nanoTime();
+
+        // Gets the database in write mode
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        final int numOperations = operations.size();
+        final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+
+        boolean successful = false;
+        boolean yielded = false;
+        boolean deferring = beginDeferredNotifications();
+        // A non-exclusive transaction lets readers on other connections carry on while we write
+        database.beginTransactionNonExclusive();
+        try {
+            for (int i = 0; i < numOperations; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed() && yieldTransaction(database)
+                        && !yielded) {
+                    // Part of the batch is committed, so observers have to hear about it even
+                    // if the rest fails. Which pets it touched isn't tracked, so the whole
+                    // collection is reported.
+                    yielded = true;
+                    notifyPetsChanged(PetContract.PetEntry.CONTENT_URI);
+                }
+                try {
+                    // Passing in the results so far lets the operation resolve its back references
+                    results[i] = operation.apply(this, results, i);
+                } catch (IllegalArgumentException e) {
+                    throw new OperationApplicationException(
+                            "Operation " + i + " on " + operation.getUri() + " failed: "
+                                    + e.getMessage(), i);
+                }
+            }
+            database.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            database.endTransaction();
+            mBreeds.transactionEnded(database, successful);
+            if (deferring) {
+                endDeferredNotifications(successful || yielded);
+            }
+            // Batches aren't tied to one URI, their operations are also counted one by one
+            mMetrics.record(PetMetrics.OP_APPLY_BATCH, -1, startNanos, numOperations,
+                    !successful);
+        }
+        return results;
+    }
+
+    /**
+     * Call a provider-defined method that doesn't fit query, insert, update or delete.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        long startNanos = System.nanoTime();
+        boolean failed = true;
+        try {
+            Bundle result = callMethod(method, arg, extras);
+            failed = false;
+            return result;
+        } finally {
+            mMetrics.record(PetMetrics.OP_CALL, -1, startNanos, 0, failed);
+        }
+    }
+
+    private Bundle callMethod(String method, String arg, Bundle extras) {
+        switch (method) {
+            case PetContract.PetEntry.METHOD_METRICS:
+                Bundle metrics = mMetrics.toBundle();
+                if (extras != null && extras.getBoolean(PetContract.PetEntry.KEY_RESET_METRICS)) {
+                    mMetrics.reset();
+                }
+                return metrics;
+            case PetContract.PetStatsEntry.METHOD_REBUILD_STATS:
+                rebuildStats();
+                return Bundle.EMPTY;
+            case PetContract.PetEntry.METHOD_DELETE_PETS:
+                return deletePetsMatching(extras);
+            case PetContract.PetEntry.METHOD_DELETE_ALL_PETS:
+                return deleteAllPets();
+            case PetContract.PetEntry.METHOD_IMPORT_PETS:
+                return importPets(arg, extras);
+            case PetContract.PetEntry.METHOD_SLOW_QUERIES:
+                Bundle slowQueries = new Bundle();
+                slowQueries.putParcelableArrayList(PetContract.PetEntry.KEY_SLOW_QUERIES,
+                        mSlowQueryLog.entries());
+                if (extras != null && extras.getBoolean(PetContract.PetEntry.KEY_CLEAR_SLOW_QUERIES)) {
+                    mSlowQueryLog.clear();
+                }
+                return slowQueries;
+            case PetContract.PetEntry.METHOD_SET_SLOW_QUERY_THRESHOLD:
+                if (extras == null
+                        || !extras.containsKey(PetContract.PetEntry.KEY_SLOW_QUERY_THRESHOLD_MICROS)) {
+                    throw new IllegalArgumentException("Slow query threshold is missing");
+                }
+                mSlowQueryLog.setThresholdMicros(
+                        extras.getLong(PetContract.PetEntry.KEY_SLOW_QUERY_THRESHOLD_MICROS));
+                Bundle threshold = new Bundle();
+                threshold.putLong(PetContract.PetEntry.KEY_SLOW_QUERY_THRESHOLD_MICROS,
+                        mSlowQueryLog.getThresholdMicros());
+                return threshold;
+            case PetContract.PetEntry.METHOD_ROW_CACHE_STATS:
+                return cacheStats(mRowCache.hitCount(), mRowCache.missCount(),
+                        mRowCache.size(), mRowCache.capacity());
+            case PetContract.PetEntry.METHOD_QUERY_CACHE_STATS:
+                return cacheStats(mQueryCache.hitCount(), mQueryCache.missCount(),
+                        mQueryCache.size(), mQueryCache.capacity());
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    /**
+     * Delete the pets matching all of the criteria in the given extras, see
+     * {@link PetContract.PetEntry#METHOD_DELETE_PETS}. The matching pets are looked up and
+     * deleted in one transaction, so the ids returned are exactly the pets that were deleted.
+     */
+    private Bundle deletePetsMatching(Bundle extras) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ArrayList<String> criteria = new ArrayList<>();
+        ArrayList<String> selectionArgs = new ArrayList<>();
+        if (extras != null) {
+            String[] columns = {
+                    PetContract.PetEntry.COLUMN_PET_NAME,
+                    PetContract.PetEntry.COLUMN_PET_BREED,
+                    PetContract.PetEntry.COLUMN_PET_GENDER,
+                    PetContract.PetEntry.COLUMN_PET_WEIGHT };
+            for (String column : columns) {
+                if (extras.containsKey(column)) {
+                    criteria.add(column);
+                    if (column.equals(PetContract.PetEntry.COLUMN_PET_BREED)) {
+                        // Compared by its id, an unknown breed's -1 matches nothing
+                        selectionArgs.add(String.valueOf(
+                                mBreeds.find(database, String.valueOf(extras.get(column)))));
+                    } else {
+                        selectionArgs.add(String.valueOf(extras.get(column)));
+                    }
+                }
+            }
+        }
+        if (criteria.isEmpty()) {
+            // Deleting every pet has to be asked for on purpose, not by leaving out the criteria
+            throw new IllegalArgumentException("Deleting pets requires at least one criterion");
+        }
+        String where = PetSchema.matchingPets(criteria.toArray(new String[criteria.size()]));
+        String[] whereArgs = selectionArgs.toArray(new String[selectionArgs.size()]);
+
+        long[] ids;
+        database.beginTransactionNonExclusive();
+        try {
+            Cursor cursor = database.query(PetContract.PetEntry.TABLE_NAME,
+                    new String[]{PetContract.PetEntry._ID}, where, whereArgs,
+                    null, null, null);
+            try {
+                ids = new long[cursor.getCount()];
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    ids[i] = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (ids.length > 0) {
+                database.delete(PetContract.PetEntry.TABLE_NAME, where, whereArgs);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // A handful of pets are reported one by one, more than that as the whole collection
+        if (ids.length > MAX_ITEM_NOTIFICATIONS) {
+            notifyPetsChanged(PetContract.PetEntry.CONTENT_URI);
+        } else {
+            for (long id : ids) {
+                notifyPetsChanged(ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, id));
+            }
+        }
+
+        Bundle result = new Bundle();
+        result.putLongArray(PetContract.PetEntry.KEY_DELETED_IDS, ids);
+        result.putInt(PetContract.PetEntry.KEY_DELETED_COUNT, ids.length);
+        return result;
+    }
+
+    /**
+     * Delete every pet, see {@link PetContract.PetEntry#METHOD_DELETE_ALL_PETS}. The tables are
+     * recreated in one transaction. The freed space is left for PetDbHelper to reclaim the next
+     * time the database is opened, a VACUUM here would hold up the caller and fail while a
+     * loader is reading.
+     */
+    private Bundle deleteAllPets() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int count;
+        boolean successful = false;
+        database.beginTransactionNonExclusive();
+        try {
+            // The statistics already know how many pets there are, no need to count them
+            count = (int) DatabaseUtils.longForQuery(database, "SELECT IFNULL(SUM("
+                    + PetSchema.COLUMN_STATS_PET_COUNT + "), 0) FROM "
+                    + PetSchema.GENDER_STATS_TABLE_NAME, null);
+            PetDbHelper.truncatePets(database);
+            // The breeds went with the pets. Forgetting them while we still hold the write lock
+            // keeps the next writer from using an id of a breed that is gone.
+            mBreeds.clear(database);
+            database.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            database.endTransaction();
+            mBreeds.transactionEnded(database, successful);
+        }
+
+        notifyPetsChanged(PetContract.PetEntry.CONTENT_URI);
+
+        Bundle result = new Bundle();
+        result.putInt(PetContract.PetEntry.KEY_DELETED_COUNT, count);
+        return result;
+    }
+
+    /**
+     * Import pets from a file, see {@link PetContract.PetEntry#METHOD_IMPORT_PETS}. Pets are
+     * read a batch at a time and then written by {@link #insertPet(Uri, ContentValues)} in one
+     * transaction per batch. If the file turns out to be unreadable part of the way through,
+     * the batches committed so far are kept.
+     *
+     * The file is usually a pipe from the caller, which may be slow to fill it, so a batch is
+     * read before the transaction starts rather than while it holds the write lock. Large
+     * batches still give waiting threads a chance to run now and then, as bulk inserts do.
+     */
+    private Bundle importPets(String format, Bundle extras) {
+        ParcelFileDescriptor file = extras != null
+                ? (ParcelFileDescriptor) extras.getParcelable(PetContract.PetEntry.KEY_IMPORT_FILE)
+                : null;
+        if (file == null) {
+            throw new IllegalArgumentException("Import requires a file");
+        }
+        int batchSize = extras.getInt(PetContract.PetEntry.KEY_IMPORT_BATCH_SIZE,
+                DEFAULT_IMPORT_BATCH_SIZE);
+        if (batchSize <= 0) {
+            batchSize = DEFAULT_IMPORT_BATCH_SIZE;
+        }
+        ResultReceiver progress = extras.getParcelable(PetContract.PetEntry.KEY_PROGRESS_RECEIVER);
+        Uri target = PetContract.PetEntry.CONTENT_URI;
+        if (extras.getBoolean(PetContract.PetEntry.KEY_IMPORT_UPSERT)) {
+            target = target.buildUpon()
+                    .appendQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_UPSERT, "true")
+                    .build();
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int imported = 0;
+        int rejected = 0;
+        boolean committed = false;
+        boolean deferring = beginDeferredNotifications();
+        PetImporter importer = null;
+        try {
+            importer = PetImporter.create(new ParcelFileDescriptor.AutoCloseInputStream(file),
+                    format);
+            boolean more = true;
+            while (more) {
+                int batchImported = 0;
+                int batchRejected = 0;
+                ArrayList<ContentValues> batch = new ArrayList<>();
+                while (batch.size() + batchRejected < batchSize) {
+                    ContentValues values;
+                    try {
+                        values = importer.next();
+                    } catch (IllegalArgumentException e) {
+                        batchRejected++;
+                        continue;
+                    }
+                    if (values == null) {
+                        more = false;
+                        break;
+                    }
+                    batch.add(values);
+                }
+
+                if (!batch.isEmpty()) {
+                    boolean batchSuccessful = false;
+                    database.beginTransactionNonExclusive();
+                    try {
+                        for (int i = 0; i < batch.size(); i++) {
+                            try {
+                                Uri newUri = insertPet(target, batch.get(i));
+                                if (ContentUris.parseId(newUri) != -1) {
+                                    batchImported++;
+                                } else {
+                                    batchRejected++;
+                                }
+                            } catch (IllegalArgumentException e) {
+                                batchRejected++;
+                            }
+                            if ((i + 1) % BULK_INSERT_YIELD_INTERVAL == 0) {
+                                yieldTransaction(database);
+                            }
+                        }
+                        database.setTransactionSuccessful();
+                        batchSuccessful = true;
+                    } finally {
+                        database.endTransaction();
+                        mBreeds.transactionEnded(database, batchSuccessful);
+                    }
+                    committed = true;
+                }
+                imported += batchImported;
+                rejected += batchRejected;
+
+                if (batchImported > 0) {
+                    // The batch is in the table now, so the caches can't keep serving the pets
+                    // as they were until the whole import is done. Observers still only hear
+                    // about it once, at the end.
+                    invalidateCaches(PetContract.PetEntry.CONTENT_URI);
+                    notifyPetsChanged(PetContract.PetEntry.CONTENT_URI);
+                }
+                if (progress != null) {
+                    progress.send(PetContract.PetEntry.RESULT_IMPORT_PROGRESS,
+                            importCounts(imported, rejected));
+                }
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "import stopped after " + imported + " pets", e);
+            throw new IllegalArgumentException("Cannot read import file after " + imported
+                    + " pets: " + e.getMessage(), e);
+        } finally {
+            if (importer != null) {
+                try {
+                    importer.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "cannot close import file", e);
+                }
+            } else {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "cannot close import file", e);
+                }
+            }
+            // The pets committed so far are reported once, however many batches there were.
+            // Only committed batches ask for notifications, so they go out even when a later
+            // batch failed.
+            if (deferring) {
+                endDeferredNotifications(committed);
+            }
+        }
+        return importCounts(imported, rejected);
+    }
+
+    private static Bundle importCounts(int imported, int rejected) {
+        Bundle counts = new Bundle();
+        counts.putInt(PetContract.PetEntry.KEY_IMPORTED_COUNT, imported);
+        counts.putInt(PetContract.PetEntry.KEY_REJECTED_COUNT, rejected);
+        return counts;
+    }
+
+    /**
+     * Recount the shelter statistics from the pets table in one transaction.
+     */
+    private void rebuildStats() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransactionNonExclusive();
+        try {
+            PetDbHelper.rebuildStats(database);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        notifyPetsChanged(PetContract.PetStatsEntry.CONTENT_URI);
+    }
+
+    /**
+     * Returns the given selection of pets in a form that works on the pets table alone, for
+     * updates and deletes, see {@link PetSchema#petsTableSelection}. The selection arguments are
+     * translated in place.
+     */
+    private String petsTableSelection(SQLiteDatabase database, String selection,
+                                      String[] selectionArgs) {
+        return PetSchema.petsTableSelection(selection, selectionArgs, mBreeds.breedIds(database));
+    }
+
+    /**
+     * Tell observers that the pets at the given URI have changed. The URI is either the pets
+     * collection or the content URI of a single pet. While a batch is being applied on this
+     * thread the notification is held back until the batch has been committed.
+     */
+    private void notifyPetsChanged(Uri uri) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
+        } else {
+            invalidateCaches(uri);
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Drop whatever the caches hold for the pets at the given URI. Called once the change has
+     * been committed, so that no reader can cache the old data again afterwards.
+     */
+    private void invalidateCaches(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case PET_ID:
+                mRowCache.invalidate(ContentUris.parseId(uri));
+                mQueryCache.invalidateAll();
+                break;
+            case PETS:
+                mRowCache.invalidateAll();
+                mQueryCache.invalidateAll();
+                break;
+        }
+    }
+
+    /**
+     * Offer the write lock to threads waiting for it in the middle of a batch, see
+     * {@link SQLiteDatabase#yieldIfContendedSafely()}. Returns true if it did. Yielding commits
+     * the work done so far, so the caches forget the pets right away instead of serving the old
+     * rows until the batch ends.
+     */
+    private boolean yieldTransaction(SQLiteDatabase database) {
+        if (!database.yieldIfContendedSafely()) {
+            return false;
+        }
+        invalidateCaches(PetContract.PetEntry.CONTENT_URI);
+        return true;
+    }
+
+    /**
+     * Put the counters of a cache into a bundle for {@link #call}.
+     */
+    private static Bundle cacheStats(int hitCount, int missCount, int size, int capacity) {
+        Bundle result = new Bundle();
+        result.putInt(PetContract.PetEntry.KEY_CACHE_HIT_COUNT, hitCount);
+        result.putInt(PetContract.PetEntry.KEY_CACHE_MISS_COUNT, missCount);
+        result.putInt(PetContract.PetEntry.KEY_CACHE_SIZE, size);
+        result.putInt(PetContract.PetEntry.KEY_CACHE_CAPACITY, capacity);
+        return result;
+    }
+
+    /**
+     * Start holding back change notifications on this thread. Returns false if they were
+     * already being held back by an enclosing batch.
+     */
+    private boolean beginDeferredNotifications() {
+        if (mPendingNotifications.get() != null) {
+            return false;
+        }
+        mPendingNotifications.set(new HashSet<Uri>());
+        return true;
+    }
+
+    /**
+     * Stop holding back change notifications on this thread and send the ones collected so far,
+     * but only if the batch they belong to was committed, in full or in part at a yield point.
+     * A batch that failed after a yield has queued the whole collection, which covers whatever
+     * it did keep.
+     */
+    private void endDeferredNotifications(boolean committed) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending == null) {
+            return;
+        }
+        mPendingNotifications.remove();
+
+        // Even a batch that failed may have committed part of its work at a yield point,
+        // so the caches always have to forget what it touched.
+        for (Uri uri : pending) {
+            invalidateCaches(uri);
+        }
+        if (!committed || pending.isEmpty()) {
+            return;
+        }
+
+        // A change to the whole collection already covers every single pet underneath it, and
+        // beyond a handful of pets one collection-wide notification is cheaper than many.
+        if (pending.contains(PetContract.PetEntry.CONTENT_URI)
+                || pending.size() > MAX_ITEM_NOTIFICATIONS) {
+            getContext().getContentResolver().notifyChange(PetContract.PetEntry.CONTENT_URI, null);
+        } else {
+            for (Uri uri : pending) {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
         }
-        return 0;
     }
 
     /**
@@ -287,12 +1417,68 @@ public class PetProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
+            case PET_SEARCH:
                 return PetContract.PetEntry.CONTENT_LIST_TYPE;
             case PET_ID:
                 return PetContract.PetEntry.CONTENT_ITEM_TYPE;
+            case PET_STATS:
+                return PetContract.PetStatsEntry.CONTENT_ITEM_TYPE;
+            case BREED_STATS:
+                return PetContract.BreedStatsEntry.CONTENT_LIST_TYPE;
+            case PET_EXPORT:
+                return PetContract.PetEntry.EXPORT_FORMAT_CSV;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
 
+    /**
+     * Returns the formats the export URI can be opened as that match the filter.
+     */
+    @Override
+    public String[] getStreamTypes(@NonNull Uri uri, @NonNull String mimeTypeFilter) {
+        if (sUriMatcher.match(uri) != PET_EXPORT) {
+            return null;
+        }
+        ArrayList<String> types = new ArrayList<>();
+        for (String format : EXPORT_FORMATS) {
+            if (ClipDescription.compareMimeTypes(format, mimeTypeFilter)) {
+                types.add(format);
+            }
+        }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Open the export URI as a stream in the first export format matching the filter. The pets
+     * are written into a pipe on a background thread while the caller reads from the other end.
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(@NonNull Uri uri, @NonNull String mimeTypeFilter,
+                                                  Bundle opts) throws FileNotFoundException {
+        String[] types = getStreamTypes(uri, mimeTypeFilter);
+        if (types == null) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        ParcelFileDescriptor pipe = openPipeHelper(uri, types[0], opts, null,
+                new PetExporter(mDbHelper));
+        return new AssetFileDescriptor(pipe, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    /**
+     * Open the export URI for reading, as CSV.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode)
+            throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != PET_EXPORT) {
+            throw new FileNotFoundException("No file at " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Export can only be opened for reading, not " + mode);
+        }
+        return openPipeHelper(uri, PetContract.PetEntry.EXPORT_FORMAT_CSV, null, null,
+                new PetExporter(mDbHelper));
+    }
+
 }
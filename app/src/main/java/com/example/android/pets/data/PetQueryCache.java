@@ -0,0 +1,305 @@
+package com.example.android.pets.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import java.util.Arrays;
+
+/**
+ * Cache of whole query results on the pets table, keyed by the URI, projection, selection,
+ * selection arguments and sort order of the query. It is bounded by the approximate number of
+ * bytes the cached results take up, and is safe to use from several threads at once.
+ *
+ * Any write to the pets table may change any result, so every write drops the whole cache.
+ * As with {@link PetRowCache}, a result is only stored if nothing has been invalidated since the
+ * query began, see {@link #generation()}.
+ */
+class PetQueryCache {
+
+    /** Results with more rows than this are never cached, to keep one query from filling it */
+    private static final int MAX_CACHED_ROWS = 2000;
+
+    /** Rough memory cost of an object header and a reference, used to size the results */
+    private static final int OBJECT_OVERHEAD = 16;
+    private static final int REFERENCE_SIZE = 4;
+
+    /**
+     * The rows of one query result. They are never changed once cached, so any number of
+     * cursors can read them at the same time.
+     */
+    private static final class Result {
+        final String[] columns;
+        final Object[][] rows;
+        final int size;
+
+        Result(String[] columns, Object[][] rows, int size) {
+            this.columns = columns;
+            this.rows = rows;
+            this.size = size;
+        }
+    }
+
+    private final LruCache<String, Result> mResults;
+
+    /** Bumped by every invalidation, guarded by this */
+    private long mGeneration;
+
+    PetQueryCache(int maxBytes) {
+        mResults = new LruCache<String, Result>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Result value) {
+                return key.length() * 2 + value.size;
+            }
+        };
+    }
+
+    /**
+     * Returns the key of a query. Queries that only differ in ways that can't change their
+     * result, such as whitespace around the selection, get the same key.
+     */
+    static String key(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                      String sortOrder) {
+        StringBuilder key = new StringBuilder(uri.toString());
+        key.append('\u0000');
+        if (projection != null) {
+            key.append(TextUtils.join(",", projection));
+        } else {
+            key.append('*');
+        }
+        key.append('\u0000');
+        if (selection != null) {
+            key.append(selection.trim());
+        }
+        key.append('\u0000');
+        if (selectionArgs != null) {
+            for (String arg : selectionArgs) {
+                // Length prefixes keep ["a,b"] and ["a", "b"] apart
+                key.append(arg == null ? -1 : arg.length()).append(':').append(arg).append(',');
+            }
+        }
+        key.append('\u0000');
+        if (sortOrder != null) {
+            key.append(sortOrder.trim());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the current generation, to be taken before running a query and handed to
+     * {@link #put(String, Cursor, long)} afterwards.
+     */
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns a new cursor over the cached result of the query with the given key, or null if it
+     * isn't cached.
+     */
+    Cursor get(String key) {
+        Result result = mResults.get(key);
+        return result != null ? new ResultCursor(result) : null;
+    }
+
+    /**
+     * Read the given cursor into the cache, unless the cache has been invalidated since the given
+     * generation. Returns a cursor over the same rows for the caller to use instead: either a
+     * cursor over the cached copy, in which case the given cursor is closed, or the given cursor
+     * itself if its result is too big to cache.
+     */
+    Cursor put(String key, Cursor cursor, long generation) {
+        int count = cursor.getCount();
+        if (count > MAX_CACHED_ROWS) {
+            return cursor;
+        }
+
+        String[] columns = cursor.getColumnNames();
+        Object[][] rows = new Object[count][];
+        int size = OBJECT_OVERHEAD + count * REFERENCE_SIZE;
+        try {
+            cursor.moveToPosition(-1);
+            for (int i = 0; cursor.moveToNext(); i++) {
+                Object[] row = new Object[columns.length];
+                size += OBJECT_OVERHEAD + columns.length * REFERENCE_SIZE;
+                for (int j = 0; j < columns.length; j++) {
+                    row[j] = readValue(cursor, j);
+                    size += sizeOf(row[j]);
+                }
+                rows[i] = row;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Result result = new Result(columns, rows, size);
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mResults.put(key, result);
+            }
+        }
+        return new ResultCursor(result);
+    }
+
+    /**
+     * Drop every cached result.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mResults.evictAll();
+    }
+
+    int hitCount() {
+        return mResults.hitCount();
+    }
+
+    int missCount() {
+        return mResults.missCount();
+    }
+
+    int size() {
+        return mResults.size();
+    }
+
+    int capacity() {
+        return mResults.maxSize();
+    }
+
+    private static Object readValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return null;
+        }
+    }
+
+    private static int sizeOf(Object value) {
+        if (value instanceof String) {
+            return OBJECT_OVERHEAD * 2 + ((String) value).length() * 2;
+        } else if (value instanceof byte[]) {
+            return OBJECT_OVERHEAD + ((byte[]) value).length;
+        } else if (value != null) {
+            return OBJECT_OVERHEAD + 8;
+        }
+        return 0;
+    }
+
+    /**
+     * Read-only cursor over a cached result. Values are converted the way SQLite cursors convert
+     * them, so callers can't tell it apart from a cursor straight from the database.
+     */
+    private static final class ResultCursor extends AbstractCursor {
+        private final Result mResult;
+
+        ResultCursor(Result result) {
+            mResult = result;
+        }
+
+        private Object value(int column) {
+            return mResult.rows[getPosition()][column];
+        }
+
+        @Override
+        public int getCount() {
+            return mResult.rows.length;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mResult.columns;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = value(column);
+            if (value instanceof byte[]) {
+                return new String((byte[]) value);
+            }
+            return value != null ? value.toString() : null;
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object value = value(column);
+            if (value instanceof byte[]) {
+                // Hand out a copy, so the cached value can't be changed
+                return Arrays.copyOf((byte[]) value, ((byte[]) value).length);
+            }
+            return value != null ? value.toString().getBytes() : null;
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = value(column);
+            if (value instanceof Number) {
+                return ((Number) value).longValue();
+            } else if (value instanceof String) {
+                try {
+                    return Long.parseLong((String) value);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = value(column);
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            } else if (value instanceof String) {
+                try {
+                    return Double.parseDouble((String) value);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = value(column);
+            if (value instanceof Long) {
+                return FIELD_TYPE_INTEGER;
+            } else if (value instanceof Double) {
+                return FIELD_TYPE_FLOAT;
+            } else if (value instanceof String) {
+                return FIELD_TYPE_STRING;
+            } else if (value instanceof byte[]) {
+                return FIELD_TYPE_BLOB;
+            }
+            return FIELD_TYPE_NULL;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return value(column) == null;
+        }
+    }
+}
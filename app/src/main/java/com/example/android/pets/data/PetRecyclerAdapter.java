@@ -0,0 +1,257 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.example.android.pets.R;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * RecyclerView adapter for the list of pets. Every cursor handed to {@link #swapCursor(Cursor)}
+ * comes with a snapshot of the pets it shows, copied on the loader thread, and the difference to
+ * the snapshot on screen is worked out on a background thread. Only the rows that were actually
+ * inserted, removed or changed are then updated, so editing a single pet rebinds a single row.
+ */
+public class PetRecyclerAdapter extends RecyclerView.Adapter<PetRecyclerAdapter.ViewHolder> {
+
+    /** Diffs are worked out one at a time on this thread, away from the UI */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Copy of the columns shown for one pet. Snapshots are made of these so that the diff does
+     * not depend on a cursor that the loader may close in the meantime.
+     */
+    static final class PetItem {
+        final long id;
+        final String name;
+        final String breed;
+
+        PetItem(long id, String name, String breed) {
+            this.id = id;
+            this.name = name;
+            this.breed = breed;
+        }
+
+        boolean hasSameContents(PetItem other) {
+            return TextUtils.equals(name, other.name) && TextUtils.equals(breed, other.breed);
+        }
+    }
+
+    /**
+     * Cursor that already holds the snapshot of its rows, made by whoever loaded it.
+     */
+    interface SnapshotCursor extends Cursor {
+        List<PetItem> getSnapshot();
+    }
+
+    /**
+     * Wraps a cursor of any loader together with the snapshot of its rows.
+     */
+    private static final class SnapshotCursorWrapper extends CursorWrapper
+            implements SnapshotCursor {
+        private final List<PetItem> mSnapshot;
+
+        SnapshotCursorWrapper(Cursor cursor) {
+            super(cursor);
+            mSnapshot = snapshot(cursor);
+        }
+
+        @Override
+        public List<PetItem> getSnapshot() {
+            return mSnapshot;
+        }
+    }
+
+    /**
+     * Compares two snapshots, matching pets up by their _id.
+     */
+    private static final class PetDiffCallback extends DiffUtil.Callback {
+        private final List<PetItem> mOldItems;
+        private final List<PetItem> mNewItems;
+
+        PetDiffCallback(List<PetItem> oldItems, List<PetItem> newItems) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).id == mNewItems.get(newItemPosition).id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).hasSameContents(mNewItems.get(newItemPosition));
+        }
+    }
+
+    /**
+     * Holds the views of one list item, so they are only looked up when the item is created and
+     * not every time it is bound to another pet.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView nameTextView;
+        final TextView summaryTextView;
+
+        ViewHolder(View view) {
+            super(view);
+            nameTextView = (TextView) view.findViewById(R.id.name);
+            summaryTextView = (TextView) view.findViewById(R.id.summary);
+        }
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Snapshot of the pets on screen */
+    private List<PetItem> mItems = Collections.emptyList();
+
+    /** Incremented for every new cursor, so that diffs which have been overtaken are dropped */
+    private int mGeneration;
+
+    public PetRecyclerAdapter() {
+        setHasStableIds(true);
+    }
+
+    /**
+     * Copy the rows the adapter shows out of the given cursor, which may be null, and return a
+     * cursor that carries the copy along. Call this from a loader's loadInBackground(), so that
+     * {@link #swapCursor(Cursor)} doesn't have to read the rows on the main thread. Closing the
+     * returned cursor closes the given one.
+     */
+    public static Cursor withSnapshot(Cursor cursor) {
+        if (cursor == null || cursor instanceof SnapshotCursor) {
+            return cursor;
+        }
+        return new SnapshotCursorWrapper(cursor);
+    }
+
+    /**
+     * Show the pets in the given cursor, which may be null. Cursors from {@link #withSnapshot}
+     * or PetPageLoader are not read at all, any other cursor is copied during this call. The
+     * cursor is not kept, so the caller stays in charge of closing it.
+     */
+    public void swapCursor(Cursor cursor) {
+        final List<PetItem> oldItems = mItems;
+        final List<PetItem> newItems = cursor instanceof SnapshotCursor
+                ? ((SnapshotCursor) cursor).getSnapshot() : snapshot(cursor);
+        final int generation = ++mGeneration;
+
+        // Going from or to an empty list needs no diff
+        if (oldItems.isEmpty() || newItems.isEmpty()) {
+            mItems = newItems;
+            if (!oldItems.isEmpty()) {
+                notifyItemRangeRemoved(0, oldItems.size());
+            } else if (!newItems.isEmpty()) {
+                notifyItemRangeInserted(0, newItems.size());
+            }
+            return;
+        }
+
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                // A renamed pet does move in the name order, but without looking for moves it
+                // comes out as a removal and an insertion, which is just as correct and keeps
+                // the diff cheaper
+                final DiffUtil.DiffResult result =
+                        DiffUtil.calculateDiff(new PetDiffCallback(oldItems, newItems), false);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            // A newer cursor came in while this diff was being worked out
+                            return;
+                        }
+                        mItems = newItems;
+                        result.dispatchUpdatesTo(PetRecyclerAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Show the pets in the given cursor, which may be null, in place of a different list, such
+     * as search results in place of the whole catalog. The two have little in common, and
+     * diffing a long catalog against a short search result would cost far more than it saves,
+     * so the list is simply rebound. The cursor is read just as by {@link #swapCursor(Cursor)}.
+     */
+    public void resetCursor(Cursor cursor) {
+        // Drop any diff still being worked out for the list that was shown before
+        mGeneration++;
+        mItems = cursor instanceof SnapshotCursor
+                ? ((SnapshotCursor) cursor).getSnapshot() : snapshot(cursor);
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Copy the displayed columns of every row of the cursor, leaving it before the first row.
+     */
+    static List<PetItem> snapshot(Cursor cursor) {
+        if (cursor == null || cursor.getCount() == 0) {
+            return Collections.emptyList();
+        }
+        // Look the columns up once per cursor rather than once per row
+        int idColumnIndex = cursor.getColumnIndexOrThrow(PetContract.PetEntry._ID);
+        int nameColumnIndex = cursor.getColumnIndexOrThrow(PetContract.PetEntry.COLUMN_PET_NAME);
+        int breedColumnIndex = cursor.getColumnIndexOrThrow(PetContract.PetEntry.COLUMN_PET_BREED);
+
+        List<PetItem> items = new ArrayList<>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            items.add(new PetItem(cursor.getLong(idColumnIndex),
+                    cursor.getString(nameColumnIndex),
+                    cursor.getString(breedColumnIndex)));
+        }
+        cursor.moveToPosition(-1);
+        return items;
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        PetItem item = mItems.get(position);
+        holder.nameTextView.setText(item.name);
+        holder.summaryTextView.setText(item.breed);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mItems.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mItems.get(position).id;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.android.pets.data;
+
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+/**
+ * Bounded cache of whole pet rows, keyed by _id, that the provider reads through for single-pet
+ * queries. It is safe to use from several threads at once.
+ *
+ * A row read from the database is only stored if no write has invalidated anything since the
+ * read began, see {@link #generation()}, so a slow reader can never put back a row that a
+ * writer has just changed.
+ */
+class PetRowCache {
+
+    /**
+     * Columns of a cached row, in the order its values are kept, which is the order
+     * {@link PetSchema#SQL_QUERY_PET_BY_ID} reads them in
+     */
+    static final String[] COLUMNS = PetSchema.petColumns();
+
+    private final LruCache<Long, Object[]> mRows;
+
+    /** Bumped by every invalidation, guarded by this */
+    private long mGeneration;
+
+    PetRowCache(int capacity) {
+        mRows = new LruCache<>(capacity);
+    }
+
+    /**
+     * Returns the current generation, to be taken before reading a row from the database and
+     * handed to {@link #put(long, Object[], long)} afterwards.
+     */
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns the values of the cached row for the given pet, in the order of {@link #COLUMNS},
+     * or null if it isn't cached.
+     */
+    Object[] get(long id) {
+        return mRows.get(id);
+    }
+
+    /**
+     * Cache the given row, unless the cache has been invalidated since the given generation.
+     */
+    synchronized void put(long id, Object[] row, long generation) {
+        if (generation == mGeneration) {
+            mRows.put(id, row);
+        }
+    }
+
+    /**
+     * Drop the row of the given pet.
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    /**
+     * Drop every row.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mRows.evictAll();
+    }
+
+    int hitCount() {
+        return mRows.hitCount();
+    }
+
+    int missCount() {
+        return mRows.missCount();
+    }
+
+    int size() {
+        return mRows.size();
+    }
+
+    int capacity() {
+        return mRows.maxSize();
+    }
+
+    /**
+     * Build a cursor over the given row, or over no rows if it is null, with the columns of the
+     * projection. Returns null if the projection asks for a column that isn't cached.
+     */
+    static MatrixCursor toCursor(Object[] row, String[] projection) {
+        String[] columns = projection != null ? projection : COLUMNS;
+        int[] indexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            indexes[i] = indexOf(columns[i]);
+            if (indexes[i] < 0) {
+                return null;
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        if (row != null) {
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = row[indexes[i]];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns the position of the column in {@link #COLUMNS}, or -1.
+     */
+    static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQuery;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps the most recent queries that took longer than a threshold, with their SQL, the shape of
+ * their arguments and the plan SQLite chose for them, so that queries scanning the whole table
+ * can be found from real use.
+ *
+ * The SQL isn't known to the provider for every kind of query, so the log is also the database's
+ * cursor factory: every cursor SQLite creates passes through {@link #newCursor}, which notes its
+ * query for the thread that asked for it. Only a query that turns out to be slow has its SQL
+ * read and its plan explained, so fast queries cost no more than a thread-local write.
+ */
+class PetSlowQueryLog implements SQLiteDatabase.CursorFactory {
+
+    private static final String LOG_TAG = PetSlowQueryLog.class.getSimpleName();
+
+    /** Number of slow queries kept, older ones are dropped */
+    private static final int CAPACITY = 32;
+
+    /** Threshold queries are held to until it is changed */
+    private static final long DEFAULT_THRESHOLD_MICROS = 100 * 1000;
+
+    /** Prefix of the string form of SQLiteQuery, which is followed by its SQL */
+    private static final String QUERY_PREFIX = "SQLiteQuery: ";
+
+    /** The last query SQLite created a cursor for on each thread */
+    private final ThreadLocal<SQLiteQuery> mLastQuery = new ThreadLocal<>();
+
+    private volatile long mThresholdMicros = DEFAULT_THRESHOLD_MICROS;
+
+    /** Ring buffer of slow queries, guarded by this. mNext is where the next one goes. */
+    private final Bundle[] mEntries = new Bundle[CAPACITY];
+    private int mNext;
+
+    @Override
+    public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable,
+                            SQLiteQuery query) {
+        mLastQuery.set(query);
+        return new SQLiteCursor(masterQuery, editTable, query);
+    }
+
+    /**
+     * Forget the query noted for this thread. Called when the provider starts a query, so that
+     * a query answered from a cache isn't blamed on an earlier one.
+     */
+    void begin() {
+        mLastQuery.remove();
+    }
+
+    /**
+     * Log the query that has just finished on this thread if it took at least the threshold.
+     *
+     * @param database      the database to explain the query on
+     * @param label         what was queried, such as its URI
+     * @param selectionArgs the arguments the caller gave, which only their shape is kept of
+     */
+    void finish(SQLiteDatabase database, String label, String[] selectionArgs, long micros,
+                int rows) {
+        SQLiteQuery query = mLastQuery.get();
+        mLastQuery.remove();
+        long threshold = mThresholdMicros;
+        if (query == null || threshold < 0 || micros < threshold) {
+            return;
+        }
+
+        String sql = query.toString();
+        if (sql.startsWith(QUERY_PREFIX)) {
+            sql = sql.substring(QUERY_PREFIX.length());
+        }
+
+        Bundle entry = new Bundle();
+        entry.putLong(PetContract.PetEntry.KEY_SLOW_QUERY_TIME, System.currentTimeMillis());
+        entry.putString(PetContract.PetEntry.KEY_SLOW_QUERY_LABEL, label);
+        entry.putString(PetContract.PetEntry.KEY_SLOW_QUERY_SQL, sql);
+        entry.putString(PetContract.PetEntry.KEY_SLOW_QUERY_ARGS, argsShape(selectionArgs));
+        entry.putLong(PetContract.PetEntry.KEY_SLOW_QUERY_MICROS, micros);
+        entry.putInt(PetContract.PetEntry.KEY_SLOW_QUERY_ROWS, rows);
+        entry.putString(PetContract.PetEntry.KEY_SLOW_QUERY_PLAN, explain(database, sql));
+        // Explaining went through newCursor() as well, don't hold on to that query either
+        mLastQuery.remove();
+
+        synchronized (this) {
+            mEntries[mNext] = entry;
+            mNext = (mNext + 1) % CAPACITY;
+        }
+    }
+
+    /**
+     * Set the threshold queries are logged from. A negative threshold turns the log off.
+     */
+    void setThresholdMicros(long thresholdMicros) {
+        mThresholdMicros = thresholdMicros;
+    }
+
+    long getThresholdMicros() {
+        return mThresholdMicros;
+    }
+
+    /**
+     * Returns the slow queries logged, oldest first.
+     */
+    synchronized ArrayList<Bundle> entries() {
+        ArrayList<Bundle> entries = new ArrayList<>(CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            Bundle entry = mEntries[(mNext + i) % CAPACITY];
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    synchronized void clear() {
+        for (int i = 0; i < CAPACITY; i++) {
+            mEntries[i] = null;
+        }
+        mNext = 0;
+    }
+
+    /**
+     * Describe the arguments without giving away their values, which may be anybody's data:
+     * "int", "real" or "null", or "text" with its length.
+     */
+    private static String argsShape(String[] selectionArgs) {
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return "[]";
+        }
+        StringBuilder shape = new StringBuilder("[");
+        for (int i = 0; i < selectionArgs.length; i++) {
+            if (i > 0) {
+                shape.append(", ");
+            }
+            String arg = selectionArgs[i];
+            if (arg == null) {
+                shape.append("null");
+            } else if (arg.matches("-?\\d+")) {
+                shape.append("int");
+            } else if (arg.matches("-?\\d*\\.\\d+([eE][-+]?\\d+)?")) {
+                shape.append("real");
+            } else {
+                shape.append("text(").append(arg.length()).append(')');
+            }
+        }
+        return shape.append(']').toString();
+    }
+
+    /**
+     * Returns the plan SQLite has for the SQL, one step per line. The parameters are left
+     * unbound, which doesn't change the plan.
+     */
+    private static String explain(SQLiteDatabase database, String sql) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+            int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                plan.append(detailIndex >= 0 ? cursor.getString(detailIndex) : "?");
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "cannot explain " + sql, e);
+            return "";
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return plan.toString();
+    }
+}
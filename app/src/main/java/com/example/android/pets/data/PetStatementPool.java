@@ -0,0 +1,196 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Precompiled statements for the provider's most common writes: inserting a pet, updating a pet
+ * by _id and deleting a pet by _id, as well as the key lookup upserts make before writing.
+ * SQLiteDatabase.insert() and update() build and compile new SQL from the ContentValues on every
+ * call, whereas these statements are compiled once and only have their arguments bound again.
+ *
+ * Inserts and updates write different sets of columns, so there is one statement for every
+ * combination of the pet columns, compiled the first time it is needed. A statement holds its
+ * bound arguments, so it can't be shared between threads. Rather than locking it, which would
+ * deadlock with a thread that holds the database's only write connection in a transaction and
+ * needs the same statement, every thread gets statements of its own. They all share the compiled
+ * SQL, which each connection keeps in its cache, see {@link PetDbHelper#SQL_CACHE_SIZE}.
+ */
+class PetStatementPool {
+
+    /**
+     * The columns a statement can write, each one standing for one bit of a column mask. They
+     * are the columns of the pets table, so values have their breed replaced by its id first.
+     */
+    private static final String[] COLUMNS = {
+            PetSchema.COLUMN_NAME,
+            PetSchema.COLUMN_BREED_ID,
+            PetSchema.COLUMN_GENDER,
+            PetSchema.COLUMN_WEIGHT };
+
+    /** Number of masks, each one having an insert and an update statement */
+    private static final int MASK_COUNT = 1 << COLUMNS.length;
+
+    /** Where the delete and key lookup statements go, after the insert and update statements */
+    private static final int DELETE_STATEMENT = 2 * MASK_COUNT;
+    private static final int FIND_BY_KEY_STATEMENT = DELETE_STATEMENT + 1;
+
+    /** Number of statements a thread can have, see {@link PetDbHelper#SQL_CACHE_SIZE} */
+    static final int STATEMENT_COUNT = FIND_BY_KEY_STATEMENT + 1;
+
+    private final SQLiteOpenHelper mDbHelper;
+
+    /**
+     * The statements of the calling thread: inserts indexed by the mask of the columns they
+     * write, then updates indexed the same way, then the delete and the key lookup.
+     */
+    private final ThreadLocal<SQLiteStatement[]> mStatements =
+            new ThreadLocal<SQLiteStatement[]>() {
+        @Override
+        protected SQLiteStatement[] initialValue() {
+            return new SQLiteStatement[STATEMENT_COUNT];
+        }
+    };
+
+    PetStatementPool(SQLiteOpenHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Returns the mask of the columns in the given values, or -1 if they are empty or hold
+     * anything but the pet columns. Values with a mask of -1 can't be written by this pool.
+     */
+    static int columnMask(ContentValues values) {
+        if (values == null || values.size() == 0) {
+            return -1;
+        }
+        int mask = 0;
+        int found = 0;
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (values.containsKey(COLUMNS[i])) {
+                mask |= 1 << i;
+                found++;
+            }
+        }
+        return found == values.size() ? mask : -1;
+    }
+
+    /**
+     * Insert a pet with the given values, whose column mask must not be -1. Returns the _id of
+     * the new pet.
+     */
+    long insert(ContentValues values) {
+        int mask = columnMask(values);
+        SQLiteStatement statement = statement(mask);
+        bindColumns(statement, mask, values);
+        return statement.executeInsert();
+    }
+
+    /**
+     * Update the pet with the given _id with the given values, whose column mask must not be -1.
+     * Returns the number of pets updated, which is either 0 or 1.
+     */
+    int updateById(long id, ContentValues values) {
+        int mask = columnMask(values);
+        SQLiteStatement statement = statement(MASK_COUNT + mask);
+        int index = bindColumns(statement, mask, values);
+        statement.bindLong(index, id);
+        return statement.executeUpdateDelete();
+    }
+
+    /**
+     * Delete the pet with the given _id. Returns the number of pets deleted, which is either
+     * 0 or 1.
+     */
+    int deleteById(long id) {
+        SQLiteStatement statement = statement(DELETE_STATEMENT);
+        statement.bindLong(1, id);
+        return statement.executeUpdateDelete();
+    }
+
+    /**
+     * Returns the _id of the oldest pet with the key made from the given name, breed and gender,
+     * or -1 if there is none. See {@link PetSchema#COLUMN_PET_KEY}.
+     */
+    long findByKey(String name, String breed, int gender) {
+        SQLiteStatement statement = statement(FIND_BY_KEY_STATEMENT);
+        statement.bindString(1, name);
+        if (breed != null) {
+            statement.bindString(2, breed);
+        } else {
+            statement.bindNull(2);
+        }
+        statement.bindLong(3, gender);
+        try {
+            return statement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // No rows
+            return -1;
+        }
+    }
+
+    /**
+     * Bind the values of the columns in the mask, in the order of {@link #COLUMNS}. Returns the
+     * index of the next argument of the statement.
+     */
+    private static int bindColumns(SQLiteStatement statement, int mask, ContentValues values) {
+        statement.clearBindings();
+        int index = 1;
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if ((mask & (1 << i)) != 0) {
+                DatabaseUtils.bindObjectToProgram(statement, index++, values.get(COLUMNS[i]));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the calling thread's statement at the given index, compiling it the first time.
+     */
+    private SQLiteStatement statement(int index) {
+        SQLiteStatement[] statements = mStatements.get();
+        SQLiteStatement statement = statements[index];
+        if (statement == null) {
+            statement = database().compileStatement(sql(index));
+            statements[index] = statement;
+        }
+        return statement;
+    }
+
+    /**
+     * Returns the SQL of the statement at the given index.
+     */
+    private static String sql(int index) {
+        if (index == DELETE_STATEMENT) {
+            return PetSchema.SQL_DELETE_PET_BY_ID;
+        } else if (index == FIND_BY_KEY_STATEMENT) {
+            return PetSchema.SQL_FIND_PET_BY_KEY;
+        } else if (index >= MASK_COUNT) {
+            return PetSchema.updatePetById(columns(index - MASK_COUNT));
+        } else {
+            return PetSchema.insertPet(columns(index));
+        }
+    }
+
+    /**
+     * Returns the columns in the mask, in the order of {@link #COLUMNS}.
+     */
+    private static String[] columns(int mask) {
+        String[] columns = new String[Integer.bitCount(mask)];
+        int index = 0;
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if ((mask & (1 << i)) != 0) {
+                columns[index++] = COLUMNS[i];
+            }
+        }
+        return columns;
+    }
+
+    private SQLiteDatabase database() {
+        return mDbHelper.getWritableDatabase();
+    }
+}
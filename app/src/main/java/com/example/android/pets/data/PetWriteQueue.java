@@ -0,0 +1,293 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes pets on a background thread, so that saving in the editor never blocks the UI. Writes
+ * are queued and applied in the order they were made, with as many as are waiting applied
+ * together in one batch, and so in one transaction. An update to a pet that comes right after
+ * another update to the same pet, before either has been written, is merged into it.
+ *
+ * There is one queue for the whole app. It doesn't belong to any activity, so writes carry on
+ * when the activity that made them is rotated or finished. Callbacks are run on the main thread
+ * once the write is done.
+ */
+public final class PetWriteQueue {
+
+    private static final String LOG_TAG = PetWriteQueue.class.getSimpleName();
+
+    /**
+     * Receives the outcome of a write on the main thread.
+     */
+    public interface Callback {
+        void onWriteComplete(Result result);
+    }
+
+    /**
+     * Outcome of a write.
+     */
+    public static final class Result {
+        /** URI of the pet inserted, or null for other writes */
+        public final Uri uri;
+
+        /** Number of pets written */
+        public final int count;
+
+        /** Bundle returned by a provider call, or null for other writes */
+        public final Bundle extras;
+
+        /** What went wrong, or null if the write succeeded */
+        public final Exception error;
+
+        Result(Uri uri, int count, Bundle extras, Exception error) {
+            this.uri = uri;
+            this.count = count;
+            this.extras = extras;
+            this.error = error;
+        }
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+    }
+
+    /** Kinds of writes */
+    private static final int INSERT = 0;
+    private static final int UPDATE = 1;
+    private static final int DELETE = 2;
+    private static final int CALL = 3;
+
+    /**
+     * One queued write, with the callbacks of every write merged into it.
+     */
+    private static final class Write {
+        final int kind;
+        final Uri uri;
+        final ContentValues values;
+        final String method;
+        final Bundle extras;
+        final List<Callback> callbacks = new ArrayList<>(1);
+
+        Write(int kind, Uri uri, ContentValues values, String method, Bundle extras,
+              Callback callback) {
+            this.kind = kind;
+            this.uri = uri;
+            this.values = values;
+            this.method = method;
+            this.extras = extras;
+            if (callback != null) {
+                callbacks.add(callback);
+            }
+        }
+
+        /** Whether the write can go into a batch of ContentProviderOperations */
+        boolean isBatchable() {
+            return kind != CALL;
+        }
+
+        ContentProviderOperation toOperation() {
+            switch (kind) {
+                case INSERT:
+                    return ContentProviderOperation.newInsert(uri).withValues(values).build();
+                case UPDATE:
+                    return ContentProviderOperation.newUpdate(uri).withValues(values).build();
+                default:
+                    return ContentProviderOperation.newDelete(uri).build();
+            }
+        }
+    }
+
+    private static PetWriteQueue sInstance;
+
+    /**
+     * Returns the app's write queue.
+     */
+    public static synchronized PetWriteQueue get(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetWriteQueue(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final ContentResolver mContentResolver;
+    private final Executor mWriter = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Writes not yet taken by the writer thread, guarded by this */
+    private final List<Write> mPending = new ArrayList<>();
+
+    /** Whether the writer thread has been asked to flush the pending writes, guarded by this */
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private PetWriteQueue(Context context) {
+        mContentResolver = context.getContentResolver();
+    }
+
+    /**
+     * Queue inserting a pet with the given values.
+     */
+    public void insert(ContentValues values, Callback callback) {
+        enqueue(new Write(INSERT, PetContract.PetEntry.CONTENT_URI, new ContentValues(values),
+                null, null, callback));
+    }
+
+    /**
+     * Queue updating the pet at the given content URI with the given values.
+     */
+    public void update(Uri petUri, ContentValues values, Callback callback) {
+        enqueue(new Write(UPDATE, petUri, new ContentValues(values), null, null, callback));
+    }
+
+    /**
+     * Queue deleting the pet at the given content URI.
+     */
+    public void delete(Uri petUri, Callback callback) {
+        enqueue(new Write(DELETE, petUri, null, null, null, callback));
+    }
+
+    /**
+     * Queue a provider call that writes pets, such as
+     * {@link PetContract.PetEntry#METHOD_DELETE_PETS}. The callback gets the Bundle it returns.
+     */
+    public void call(String method, Bundle extras, Callback callback) {
+        enqueue(new Write(CALL, PetContract.PetEntry.CONTENT_URI, null, method,
+                extras != null ? new Bundle(extras) : null, callback));
+    }
+
+    private synchronized void enqueue(Write write) {
+        Write last = mPending.isEmpty() ? null : mPending.get(mPending.size() - 1);
+        if (write.kind == UPDATE && last != null && last.kind == UPDATE
+                && last.uri.equals(write.uri)) {
+            // Nothing can have read the first update yet, so writing both at once is the same
+            last.values.putAll(write.values);
+            last.callbacks.addAll(write.callbacks);
+        } else {
+            mPending.add(write);
+        }
+
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mWriter.execute(mFlush);
+        }
+    }
+
+    /**
+     * Apply every pending write, on the writer thread. Runs of writes that fit in a batch are
+     * applied as one batch, provider calls on their own.
+     */
+    private void flush() {
+        List<Write> writes;
+        synchronized (this) {
+            writes = new ArrayList<>(mPending);
+            mPending.clear();
+            mFlushScheduled = false;
+        }
+
+        int start = 0;
+        while (start < writes.size()) {
+            Write write = writes.get(start);
+            if (!write.isBatchable()) {
+                applyCall(write);
+                start++;
+                continue;
+            }
+            int end = start;
+            while (end < writes.size() && writes.get(end).isBatchable()) {
+                end++;
+            }
+            applyBatch(writes.subList(start, end));
+            start = end;
+        }
+    }
+
+    private void applyBatch(List<Write> writes) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(writes.size());
+        for (Write write : writes) {
+            operations.add(write.toOperation());
+        }
+
+        ContentProviderResult[] results;
+        try {
+            results = mContentResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+            if (writes.size() == 1) {
+                deliver(writes.get(0), new Result(null, 0, null, e));
+                return;
+            }
+            // One bad write shouldn't take the others down with it, so write them one by one
+            // to find out which it was
+            Log.e(LOG_TAG, "batch of " + writes.size() + " writes failed, retrying singly", e);
+            for (int i = 0; i < writes.size(); i++) {
+                applyBatch(writes.subList(i, i + 1));
+            }
+            return;
+        }
+
+        for (int i = 0; i < writes.size(); i++) {
+            ContentProviderResult result = results[i];
+            if (result.uri != null) {
+                boolean inserted = ContentUris.parseId(result.uri) != -1;
+                deliver(writes.get(i), new Result(result.uri, inserted ? 1 : 0, null,
+                        inserted ? null : new IllegalStateException("Pet was not inserted")));
+            } else {
+                deliver(writes.get(i), new Result(null,
+                        result.count != null ? result.count : 0, null, null));
+            }
+        }
+    }
+
+    private void applyCall(Write write) {
+        try {
+            Bundle extras = mContentResolver.call(PetContract.PetEntry.CONTENT_URI, write.method,
+                    null, write.extras);
+            int count = extras != null ? extras.getInt(PetContract.PetEntry.KEY_DELETED_COUNT) : 0;
+            deliver(write, new Result(null, count, extras, null));
+        } catch (RuntimeException e) {
+            deliver(write, new Result(null, 0, null, e));
+        }
+    }
+
+    /**
+     * Hand the result of a write to its callbacks on the main thread.
+     */
+    private void deliver(final Write write, final Result result) {
+        if (result.error != null) {
+            Log.e(LOG_TAG, "write to " + write.uri + " failed", result.error);
+        }
+        if (write.callbacks.isEmpty()) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Callback callback : write.callbacks) {
+                    callback.onWriteComplete(result);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetSchema;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * Creates databases with the app's schema on the JVM and fills them with made-up pets, for the
+ * benchmarks to run against. The tables, triggers and connection settings all come from
+ * {@link PetSchema}, as PetDbHelper creates them on the device.
+ */
+final class PetDatabase {
+
+    /** Columns of the pets table every pet is inserted with, as the provider's inserts do */
+    static final String[] INSERT_COLUMNS = {
+            PetSchema.COLUMN_NAME,
+            PetSchema.COLUMN_BREED_ID,
+            PetSchema.COLUMN_GENDER,
+            PetSchema.COLUMN_WEIGHT };
+
+    private static final String[] BREEDS = {
+            "Tabby", "Siamese", "Persian", "Maine Coon", "Labrador", "Poodle", "Beagle",
+            "Terrier", "Bulldog", "Collie", "Dachshund", "Boxer", "Husky", "Pug", "Shih Tzu" };
+
+    private static final String[] NAMES = {
+            "Toto", "Garfield", "Binx", "Lady", "Tommy", "Bella", "Max", "Luna", "Charlie",
+            "Lucy", "Cooper", "Daisy", "Milo", "Molly", "Rocky", "Sadie", "Oscar", "Chloe" };
+
+    private PetDatabase() {}
+
+    /**
+     * Tune the connection the way PetDbHelper does: write-ahead logging, which Android turns on
+     * through its own API, and the pragmas of {@link PetSchema#connectionPragmas()}.
+     */
+    static void configure(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("PRAGMA journal_mode=WAL");
+            for (String pragma : PetSchema.connectionPragmas()) {
+                statement.execute(pragma);
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Create the tables, with every breed in the breeds table, its id being its position in
+     * {@link #BREEDS} plus one.
+     */
+    static void create(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            for (String sql : PetSchema.createTables()) {
+                statement.execute(sql);
+            }
+        } finally {
+            statement.close();
+        }
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO "
+                + PetSchema.BREEDS_TABLE_NAME + " (" + PetSchema.COLUMN_BREED_ID + ", "
+                + PetSchema.COLUMN_BREED + ") VALUES (?, ?)");
+        try {
+            for (int i = 0; i < BREEDS.length; i++) {
+                insert.setInt(1, breedId(BREEDS[i]));
+                insert.setString(2, BREEDS[i]);
+                insert.executeUpdate();
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Returns the id of one of the {@link #BREEDS}, as the provider's breed dictionary would
+     * hand it out from memory.
+     */
+    static int breedId(String breed) {
+        for (int i = 0; i < BREEDS.length; i++) {
+            if (BREEDS[i].equals(breed)) {
+                return i + 1;
+            }
+        }
+        throw new IllegalArgumentException("Unknown breed " + breed);
+    }
+
+    /**
+     * Insert the given number of made-up pets in one transaction. The same seed always gives the
+     * same pets, so runs can be compared.
+     */
+    static void populate(Connection connection, int count, long seed) throws SQLException {
+        Random random = new Random(seed);
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        PreparedStatement insert = connection.prepareStatement(
+                PetSchema.insertPet(INSERT_COLUMNS));
+        try {
+            for (int i = 0; i < count; i++) {
+                bindRandomPet(insert, random, i);
+                insert.executeUpdate();
+            }
+            connection.commit();
+        } finally {
+            insert.close();
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Bind a made-up pet to the {@link #INSERT_COLUMNS} parameters of the statement. The number
+     * is appended to the name, so that names are mostly distinct.
+     */
+    static void bindRandomPet(PreparedStatement insert, Random random, int number)
+            throws SQLException {
+        insert.setString(1, NAMES[random.nextInt(NAMES.length)] + " " + number);
+        if (random.nextInt(10) == 0) {
+            insert.setNull(2, java.sql.Types.INTEGER);
+        } else {
+            insert.setInt(2, 1 + random.nextInt(BREEDS.length));
+        }
+        insert.setInt(3, random.nextInt(3));
+        insert.setInt(4, 1 + random.nextInt(60));
+    }
+}
@@ -0,0 +1,425 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetSchema;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the statements PetProvider runs for its main operations, against a database
+ * with the app's schema holding 1k, 100k or 1M pets. The schema and the statements are taken
+ * from {@link PetSchema}, which the app is built with as well.
+ *
+ * Each trial works on its own copy of a database that is filled once per size and then kept in
+ * the temporary directory, so the bigger sizes only pay for filling it on the first run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PetProviderBenchmark {
+
+    /** Pets the provider's bulkInsert() writes per call in the bulk insert benchmark */
+    private static final int BULK_INSERT_SIZE = 500;
+
+    /** Columns the catalog reads, every column of a pet */
+    private static final String CATALOG_COLUMNS = join(PetSchema.petColumns());
+
+    /** Columns a search reads, every column of a pet from the pets table and the breeds table */
+    private static final String SEARCH_COLUMNS = PetSchema.TABLE_NAME + "." + PetSchema.COLUMN_ID
+            + ", " + PetSchema.TABLE_NAME + "." + PetSchema.COLUMN_NAME
+            + ", " + PetSchema.BREEDS_TABLE_NAME + "." + PetSchema.COLUMN_BREED
+            + ", " + PetSchema.TABLE_NAME + "." + PetSchema.COLUMN_GENDER
+            + ", " + PetSchema.TABLE_NAME + "." + PetSchema.COLUMN_WEIGHT;
+
+    /** Most search results the catalog shows at once */
+    private static final int SEARCH_RESULT_LIMIT = 200;
+
+    /** Seed of the made-up pets, the same for every run */
+    private static final long SEED = 42;
+
+    /** Number of pets in the database */
+    @Param({"1000", "100000", "1000000"})
+    public int petCount;
+
+    private File mDatabaseFile;
+    private Connection mConnection;
+    private Random mRandom;
+    private long mMaxId;
+
+    private PreparedStatement mInsert;
+    private PreparedStatement mFindByKey;
+    private PreparedStatement mQueryById;
+    private PreparedStatement mUpdateById;
+    private PreparedStatement mUpsertById;
+    private PreparedStatement mSelectMatching;
+    private PreparedStatement mDeleteMatching;
+
+    @Setup(Level.Trial)
+    public void openDatabase() throws SQLException, IOException {
+        File template = new File(System.getProperty("java.io.tmpdir"),
+                "pets-benchmark-v" + PetSchema.VERSION + "-" + petCount + ".db");
+        if (!template.exists()) {
+            createTemplate(template, petCount);
+        }
+        mDatabaseFile = File.createTempFile("pets-benchmark", ".db");
+        Files.copy(template.toPath(), mDatabaseFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + mDatabaseFile.getPath());
+        PetDatabase.configure(mConnection);
+        mRandom = new Random(SEED);
+        mMaxId = petCount;
+
+        mInsert = mConnection.prepareStatement(PetSchema.insertPet(PetDatabase.INSERT_COLUMNS));
+        mFindByKey = mConnection.prepareStatement(PetSchema.SQL_FIND_PET_BY_KEY);
+        mQueryById = mConnection.prepareStatement(PetSchema.SQL_QUERY_PET_BY_ID);
+        mUpdateById = mConnection.prepareStatement(
+                PetSchema.updatePetById(PetSchema.COLUMN_WEIGHT));
+        mUpsertById = mConnection.prepareStatement(
+                PetSchema.updatePetById(PetDatabase.INSERT_COLUMNS));
+        // What the editor's delete asks for: every field it has plus the gender, with the breed
+        // already turned into its id
+        String matching = PetSchema.matchingPets(PetSchema.COLUMN_NAME, PetSchema.COLUMN_BREED,
+                PetSchema.COLUMN_GENDER, PetSchema.COLUMN_WEIGHT);
+        mSelectMatching = mConnection.prepareStatement("SELECT " + PetSchema.COLUMN_ID
+                + " FROM " + PetSchema.TABLE_NAME + " WHERE " + matching);
+        mDeleteMatching = mConnection.prepareStatement("DELETE FROM " + PetSchema.TABLE_NAME
+                + " WHERE " + matching);
+    }
+
+    /**
+     * Fill a database with the given number of pets and leave it at the given path.
+     */
+    private static void createTemplate(File template, int count) throws SQLException, IOException {
+        File partial = new File(template.getPath() + ".partial");
+        Files.deleteIfExists(partial.toPath());
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + partial.getPath());
+        try {
+            PetDatabase.configure(connection);
+            PetDatabase.create(connection);
+            PetDatabase.populate(connection, count, SEED);
+            Statement statement = connection.createStatement();
+            try {
+                // Leave everything in the main file, so copying it copies the whole database
+                statement.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+                statement.execute("PRAGMA journal_mode=DELETE");
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+        Files.move(partial.toPath(), template.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() throws SQLException {
+        mConnection.close();
+        mDatabaseFile.delete();
+        new File(mDatabaseFile.getPath() + "-wal").delete();
+        new File(mDatabaseFile.getPath() + "-shm").delete();
+    }
+
+    private long randomId() {
+        return 1 + (long) (mRandom.nextDouble() * mMaxId);
+    }
+
+    /**
+     * insert() on the pets URI: one pet in its own transaction.
+     */
+    @Benchmark
+    public long singleInsert() throws SQLException {
+        PetDatabase.bindRandomPet(mInsert, mRandom, (int) ++mMaxId);
+        return mInsert.executeUpdate();
+    }
+
+    /**
+     * bulkInsert() on the pets URI: a batch of pets in one transaction.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int bulkInsert() throws SQLException {
+        mConnection.setAutoCommit(false);
+        try {
+            int inserted = 0;
+            for (int i = 0; i < BULK_INSERT_SIZE; i++) {
+                PetDatabase.bindRandomPet(mInsert, mRandom, (int) ++mMaxId);
+                inserted += mInsert.executeUpdate();
+            }
+            mConnection.commit();
+            return inserted;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * A pet that is already in the database, for the upsert benchmark to write again.
+     */
+    @State(Scope.Thread)
+    public static class UpsertTarget {
+        String name;
+        String breed;
+        int gender;
+
+        @Setup(Level.Invocation)
+        public void pickPet(PetProviderBenchmark benchmark) throws SQLException {
+            PreparedStatement query = benchmark.mQueryById;
+            do {
+                query.setLong(1, benchmark.randomId());
+                ResultSet pet = query.executeQuery();
+                try {
+                    if (pet.next()) {
+                        name = pet.getString(2);
+                        breed = pet.getString(3);
+                        gender = pet.getInt(4);
+                        return;
+                    }
+                } finally {
+                    pet.close();
+                }
+            } while (true);
+        }
+    }
+
+    /**
+     * insert() on the pets URI in upsert mode, for a pet that is already there: look it up by
+     * its key and write all of its values again, in one transaction.
+     */
+    @Benchmark
+    public int upsertExisting(UpsertTarget target) throws SQLException {
+        mConnection.setAutoCommit(false);
+        try {
+            mFindByKey.setString(1, target.name);
+            mFindByKey.setString(2, target.breed);
+            mFindByKey.setInt(3, target.gender);
+            long id = -1;
+            ResultSet result = mFindByKey.executeQuery();
+            try {
+                if (result.next()) {
+                    id = result.getLong(1);
+                }
+            } finally {
+                result.close();
+            }
+            int written = 0;
+            if (id != -1) {
+                mUpsertById.setString(1, target.name);
+                if (target.breed != null) {
+                    mUpsertById.setInt(2, PetDatabase.breedId(target.breed));
+                } else {
+                    mUpsertById.setNull(2, java.sql.Types.INTEGER);
+                }
+                mUpsertById.setInt(3, target.gender);
+                mUpsertById.setInt(4, 1 + mRandom.nextInt(60));
+                mUpsertById.setLong(5, id);
+                written = mUpsertById.executeUpdate();
+            }
+            mConnection.commit();
+            return written;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * query() on a pet's URI when the row cache misses.
+     */
+    @Benchmark
+    public void queryById(Blackhole blackhole) throws SQLException {
+        mQueryById.setLong(1, randomId());
+        ResultSet result = mQueryById.executeQuery();
+        try {
+            while (result.next()) {
+                blackhole.consume(result.getLong(1));
+                blackhole.consume(result.getString(2));
+                blackhole.consume(result.getString(3));
+                blackhole.consume(result.getInt(4));
+                blackhole.consume(result.getInt(5));
+            }
+        } finally {
+            result.close();
+        }
+    }
+
+    /**
+     * update() on a pet's URI.
+     */
+    @Benchmark
+    public int updateById() throws SQLException {
+        mUpdateById.setInt(1, 1 + mRandom.nextInt(60));
+        mUpdateById.setLong(2, randomId());
+        return mUpdateById.executeUpdate();
+    }
+
+    /**
+     * A pet for the criteria delete benchmark to find and delete, inserted before every call
+     * so the database keeps its size.
+     */
+    @State(Scope.Thread)
+    public static class DeleteVictim {
+        String name;
+        String breed;
+        int gender;
+        int weight;
+
+        @Setup(Level.Invocation)
+        public void insertVictim(PetProviderBenchmark benchmark) throws SQLException {
+            name = "Victim " + benchmark.mRandom.nextLong();
+            breed = "Tabby";
+            gender = benchmark.mRandom.nextInt(3);
+            weight = 1 + benchmark.mRandom.nextInt(60);
+            PreparedStatement insert = benchmark.mInsert;
+            insert.setString(1, name);
+            insert.setInt(2, PetDatabase.breedId(breed));
+            insert.setInt(3, gender);
+            insert.setInt(4, weight);
+            insert.executeUpdate();
+        }
+    }
+
+    /**
+     * The delete_pets call the editor makes: look up the pets matching its fields and delete
+     * them, in one transaction.
+     */
+    @Benchmark
+    public List<Long> criteriaDelete(DeleteVictim victim) throws SQLException {
+        mConnection.setAutoCommit(false);
+        try {
+            bindCriteria(mSelectMatching, victim);
+            List<Long> ids = new ArrayList<>();
+            ResultSet result = mSelectMatching.executeQuery();
+            try {
+                while (result.next()) {
+                    ids.add(result.getLong(1));
+                }
+            } finally {
+                result.close();
+            }
+            if (!ids.isEmpty()) {
+                bindCriteria(mDeleteMatching, victim);
+                mDeleteMatching.executeUpdate();
+            }
+            mConnection.commit();
+            return ids;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    private static void bindCriteria(PreparedStatement statement, DeleteVictim victim)
+            throws SQLException {
+        statement.setString(1, victim.name);
+        statement.setInt(2, PetDatabase.breedId(victim.breed));
+        statement.setInt(3, victim.gender);
+        statement.setInt(4, victim.weight);
+    }
+
+    /**
+     * The sort order of a full catalog scan.
+     */
+    @State(Scope.Thread)
+    public static class CatalogOrder {
+        @Param({PetSchema.PAGE_SORT_ORDER, "breed", "weight DESC", "_id"})
+        public String sortOrder;
+    }
+
+    /**
+     * query() on the pets URI without paging: read every pet in the given order.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void catalogScan(CatalogOrder order, Blackhole blackhole) throws SQLException {
+        Statement statement = mConnection.createStatement();
+        try {
+            ResultSet result = statement.executeQuery("SELECT " + CATALOG_COLUMNS
+                    + " FROM " + PetSchema.PETS_WITH_BREEDS + " ORDER BY " + order.sortOrder);
+            try {
+                while (result.next()) {
+                    blackhole.consume(result.getLong(1));
+                    blackhole.consume(result.getString(2));
+                    blackhole.consume(result.getString(3));
+                    blackhole.consume(result.getInt(4));
+                    blackhole.consume(result.getInt(5));
+                }
+            } finally {
+                result.close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * What the user typed into the search box, as the MATCH expression the provider makes of it.
+     */
+    @State(Scope.Thread)
+    public static class SearchQuery {
+        @Param({"ma*", "max*", "luna* 4*", "terrier*"})
+        public String match;
+    }
+
+    /**
+     * query() on the search URI as the catalog makes it: the best matches of the search, as
+     * many as the catalog shows.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void search(SearchQuery query, Blackhole blackhole) throws SQLException {
+        PreparedStatement statement = mConnection.prepareStatement("SELECT " + SEARCH_COLUMNS
+                + " FROM " + PetSchema.searchTables(query.match.split(" ").length,
+                SEARCH_RESULT_LIMIT)
+                + " ORDER BY " + PetSchema.SEARCH_SORT_ORDER + " LIMIT " + SEARCH_RESULT_LIMIT);
+        try {
+            statement.setString(1, query.match);
+            ResultSet result = statement.executeQuery();
+            try {
+                while (result.next()) {
+                    blackhole.consume(result.getLong(1));
+                    blackhole.consume(result.getString(2));
+                    blackhole.consume(result.getString(3));
+                    blackhole.consume(result.getInt(4));
+                    blackhole.consume(result.getInt(5));
+                }
+            } finally {
+                result.close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static String join(String[] columns) {
+        StringBuilder joined = new StringBuilder();
+        for (String column : columns) {
+            if (joined.length() > 0) {
+                joined.append(", ");
+            }
+            joined.append(column);
+        }
+        return joined.toString();
+    }
+}
@@ -0,0 +1,748 @@
+package com.example.android.pets.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The SQL of the pets database: its tables, indexes and triggers, and the statements the
+ * provider runs for its most common operations.
+ *
+ * It is plain Java without any Android classes, so that the benchmarks run on the JVM against
+ * exactly the SQL the app ships. PetDbHelper creates and upgrades the database from it, and
+ * PetContract takes the names of the pets table and its columns from it.
+ */
+public final class PetSchema {
+
+    /**
+     * Version of the schema. If you change the schema, you must increment the version and add a
+     * step for it in upgradeTables().
+     *
+     * 1 - pets table
+     * 2 - indexes on name, breed and (gender, weight)
+     * 3 - full-text search table on name and breed
+     * 4 - summary tables for the shelter statistics
+     * 5 - unique key on the normalized name, breed and gender, for upserts
+     * 6 - breeds moved into their own table, pets refer to them by id
+     * 7 - every pet has a key, which is no longer unique, and inserts write it themselves
+     * 8 - breed ids are never handed out twice
+     * 9 - prefix indexes on the search table for the first two and three letters of words
+     */
+    public static final int VERSION = 9;
+
+    /** Name of the pets table and of its columns, as the contract describes them */
+    public static final String TABLE_NAME = "pets";
+    public static final String COLUMN_ID = "_id";
+    public static final String COLUMN_NAME = "name";
+    public static final String COLUMN_BREED = "breed";
+    public static final String COLUMN_GENDER = "gender";
+    public static final String COLUMN_WEIGHT = "weight";
+
+    /** Possible values for the gender of a pet */
+    public static final int GENDER_UNKNOWN = 0;
+    public static final int GENDER_MALE = 1;
+    public static final int GENDER_FEMALE = 2;
+
+    /**
+     * Name of the table holding every breed once. Pets refer to their breed by its id, which
+     * keeps the pets table small when thousands of pets share a few hundred breeds.
+     */
+    public static final String BREEDS_TABLE_NAME = "breeds";
+
+    /** Column of the pets table and the breeds table holding the id of a breed */
+    public static final String COLUMN_BREED_ID = "breed_id";
+
+    /**
+     * The pets table joined to the breeds table, which has the columns of a pet as the contract
+     * describes them. Pets without a breed have a null breed.
+     */
+    public static final String PETS_WITH_BREEDS = TABLE_NAME + " LEFT JOIN "
+            + BREEDS_TABLE_NAME + " USING (" + COLUMN_BREED_ID + ")";
+
+    /** A breed compared to an argument, which can be compared by its id instead */
+    private static final Pattern BREED_EQUALS_ARGUMENT = Pattern.compile(
+            "(?<![\\w.])" + COLUMN_BREED + "\\s*=\\s*\\?(?!\\d)");
+
+    /** Any mention of the breed column */
+    private static final Pattern BREED_COLUMN = Pattern.compile(
+            "(?<![\\w.])" + COLUMN_BREED + "(?!\\w)");
+
+    /**
+     * Column holding the key of a pet, its name and breed in lower case without surrounding
+     * spaces and its gender. The statements of {@link #insertPet(String...)} write it along with
+     * the pet, the triggers below fill it in for other inserts and keep it up to date, and it is
+     * indexed, so a pet can be found by its key with one index lookup.
+     *
+     * Every pet has a key, but it isn't unique: plain inserts can write several pets with the
+     * same key. An upsert updates the oldest of them, see {@link #SQL_FIND_PET_BY_KEY}, so once
+     * that one is deleted or renamed the next oldest takes its place.
+     */
+    public static final String COLUMN_PET_KEY = "pet_key";
+
+    /**
+     * Name of the full-text search table that shadows the name and breed of every pet. Its docid
+     * is the _id of the pet, and the triggers below keep it in step with the pets table.
+     */
+    public static final String FTS_TABLE_NAME = "pets_fts";
+
+    /**
+     * Name of the table holding the number of pets and their total weight for each gender.
+     * It always has one row per gender, kept up to date by the triggers below.
+     */
+    public static final String GENDER_STATS_TABLE_NAME = "pet_stats";
+
+    /**
+     * Name of the table holding the number of pets of each breed. Pets without a breed are
+     * counted under the empty string, and a breed's row goes away with its last pet.
+     */
+    public static final String BREED_STATS_TABLE_NAME = "breed_stats";
+
+    /** Columns of the statistics tables */
+    public static final String COLUMN_STATS_GENDER = "gender";
+    public static final String COLUMN_STATS_BREED = "breed";
+    public static final String COLUMN_STATS_PET_COUNT = "pet_count";
+    public static final String COLUMN_STATS_WEIGHT_TOTAL = "weight_total";
+
+    /** Name of the subquery of a search that has the best matches, see {@link #searchTables} */
+    public static final String SEARCH_HITS = "hits";
+
+    /** Column of {@link #SEARCH_HITS} holding how well a pet matches */
+    public static final String COLUMN_SEARCH_RANK = "rank";
+
+    /**
+     * Order of search results: the pets with the most of the words in their name first, ties
+     * broken by name.
+     */
+    public static final String SEARCH_SORT_ORDER = SEARCH_HITS + "." + COLUMN_SEARCH_RANK
+            + " DESC, " + TABLE_NAME + "." + COLUMN_NAME + " COLLATE NOCASE";
+
+    /** Name column as compared by paged queries, matching the collation of the name index */
+    public static final String PAGE_NAME_KEY = COLUMN_NAME + " COLLATE NOCASE";
+
+    /** Order of paged queries, the name index keeps its entries in exactly this order */
+    public static final String PAGE_SORT_ORDER = PAGE_NAME_KEY + ", " + COLUMN_ID;
+
+    // AUTOINCREMENT, so that the id of a breed that is gone never comes back as the id of another
+    // breed, which an id still held in memory would then silently point to
+    public static final String SQL_CREATE_BREEDS_TABLE = "CREATE TABLE " + BREEDS_TABLE_NAME + " ("
+            + COLUMN_BREED_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + COLUMN_BREED + " TEXT NOT NULL UNIQUE);";
+
+    public static final String SQL_CREATE_PETS_TABLE = "CREATE TABLE " + TABLE_NAME + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + COLUMN_NAME + " TEXT NOT NULL, "
+            + COLUMN_BREED_ID + " INTEGER REFERENCES " + BREEDS_TABLE_NAME + ", "
+            + COLUMN_GENDER + " INTEGER NOT NULL, "
+            + COLUMN_WEIGHT + " INTEGER NOT NULL DEFAULT 0, "
+            + COLUMN_PET_KEY + " TEXT);";
+
+    // Index used for looking pets up and sorting them by name, ignoring case
+    private static final String SQL_CREATE_NAME_INDEX = "CREATE INDEX IF NOT EXISTS pets_name_index ON "
+            + TABLE_NAME + " (" + COLUMN_NAME + " COLLATE NOCASE);";
+
+    // Index used for looking pets up by breed
+    private static final String SQL_CREATE_BREED_INDEX = "CREATE INDEX IF NOT EXISTS pets_breed_index ON "
+            + TABLE_NAME + " (" + COLUMN_BREED_ID + ");";
+
+    // Index used for criteria lookups such as the editor's delete, which always filters on gender
+    // and often on weight as well
+    private static final String SQL_CREATE_GENDER_WEIGHT_INDEX = "CREATE INDEX IF NOT EXISTS pets_gender_weight_index ON "
+            + TABLE_NAME + " (" + COLUMN_GENDER + ", " + COLUMN_WEIGHT + ");";
+
+    // The rowid is part of every index entry, so pets with the same key come out oldest first
+    private static final String SQL_CREATE_KEY_INDEX = "CREATE INDEX IF NOT EXISTS pets_key_index ON "
+            + TABLE_NAME + " (" + COLUMN_PET_KEY + ");";
+
+    // Only for inserts that didn't write the key themselves, which the usual ones do
+    private static final String SQL_CREATE_KEY_INSERT_TRIGGER = "CREATE TRIGGER pets_key_insert AFTER INSERT ON "
+            + TABLE_NAME + " WHEN new." + COLUMN_PET_KEY + " IS NULL BEGIN "
+            + "UPDATE " + TABLE_NAME + " SET "
+            + COLUMN_PET_KEY + " = " + petKey("new") + " WHERE "
+            + COLUMN_ID + " = new." + COLUMN_ID + "; END;";
+
+    // The editor writes every column when it saves, so skip updates that leave the key as it is
+    private static final String SQL_CREATE_KEY_UPDATE_TRIGGER = "CREATE TRIGGER pets_key_update AFTER UPDATE OF "
+            + COLUMN_NAME + ", " + COLUMN_BREED_ID + ", " + COLUMN_GENDER + " ON "
+            + TABLE_NAME + " WHEN new." + COLUMN_NAME + " IS NOT old." + COLUMN_NAME
+            + " OR new." + COLUMN_BREED_ID + " IS NOT old." + COLUMN_BREED_ID
+            + " OR new." + COLUMN_GENDER + " IS NOT old." + COLUMN_GENDER + " BEGIN "
+            + "UPDATE " + TABLE_NAME + " SET "
+            + COLUMN_PET_KEY + " = " + petKey("new") + " WHERE "
+            + COLUMN_ID + " = new." + COLUMN_ID + "; END;";
+
+    // Give the pets that are already there their keys
+    private static final String SQL_POPULATE_KEYS = "UPDATE " + TABLE_NAME + " SET "
+            + COLUMN_PET_KEY + " = " + petKey(null) + " WHERE "
+            + COLUMN_PET_KEY + " IS NULL;";
+
+    // FTS4 rather than FTS5, which isn't available in the SQLite versions we support. Every word
+    // of a search is a prefix query, and the prefix indexes answer those of two and three letters,
+    // which the first keystrokes of a search are, without scanning every word that starts with them
+    private static final String SQL_CREATE_FTS_TABLE = "CREATE VIRTUAL TABLE " + FTS_TABLE_NAME
+            + " USING fts4(" + COLUMN_NAME + ", " + COLUMN_BREED + ", prefix=\"2,3\");";
+
+    private static final String SQL_CREATE_FTS_INSERT_TRIGGER = "CREATE TRIGGER pets_fts_insert AFTER INSERT ON "
+            + TABLE_NAME + " BEGIN "
+            + "INSERT INTO " + FTS_TABLE_NAME + " (docid, " + COLUMN_NAME + ", " + COLUMN_BREED
+            + ") VALUES (new." + COLUMN_ID + ", new." + COLUMN_NAME + ", "
+            + breedOf("new") + "); END;";
+
+    private static final String SQL_CREATE_FTS_UPDATE_TRIGGER = "CREATE TRIGGER pets_fts_update AFTER UPDATE OF "
+            + COLUMN_NAME + ", " + COLUMN_BREED_ID + " ON "
+            + TABLE_NAME + " BEGIN "
+            + "UPDATE " + FTS_TABLE_NAME + " SET "
+            + COLUMN_NAME + " = new." + COLUMN_NAME + ", "
+            + COLUMN_BREED + " = " + breedOf("new")
+            + " WHERE docid = old." + COLUMN_ID + "; END;";
+
+    private static final String SQL_CREATE_FTS_DELETE_TRIGGER = "CREATE TRIGGER pets_fts_delete AFTER DELETE ON "
+            + TABLE_NAME + " BEGIN "
+            + "DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old." + COLUMN_ID + "; END;";
+
+    // Fill the search table from the pets that are already there
+    private static final String SQL_POPULATE_FTS_TABLE = "INSERT INTO " + FTS_TABLE_NAME + " (docid, "
+            + COLUMN_NAME + ", " + COLUMN_BREED + ") SELECT "
+            + COLUMN_ID + ", " + COLUMN_NAME + ", " + COLUMN_BREED + " FROM "
+            + PETS_WITH_BREEDS + ";";
+
+    private static final String SQL_CREATE_GENDER_STATS_TABLE = "CREATE TABLE " + GENDER_STATS_TABLE_NAME + " ("
+            + COLUMN_STATS_GENDER + " INTEGER PRIMARY KEY, "
+            + COLUMN_STATS_PET_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+            + COLUMN_STATS_WEIGHT_TOTAL + " INTEGER NOT NULL DEFAULT 0);";
+
+    private static final String SQL_CREATE_BREED_STATS_TABLE = "CREATE TABLE " + BREED_STATS_TABLE_NAME + " ("
+            + COLUMN_STATS_BREED + " TEXT PRIMARY KEY NOT NULL, "
+            + COLUMN_STATS_PET_COUNT + " INTEGER NOT NULL DEFAULT 0);";
+
+    // Statements that count a pet in or out of the statistics. "new" and "old" are filled in
+    // with the row of the trigger that runs them.
+    private static final String SQL_STATS_ADD_PET = statsAddPet("new");
+    private static final String SQL_STATS_REMOVE_PET = statsRemovePet("old");
+
+    private static final String SQL_CREATE_STATS_INSERT_TRIGGER = "CREATE TRIGGER pets_stats_insert AFTER INSERT ON "
+            + TABLE_NAME + " BEGIN "
+            + SQL_STATS_ADD_PET + " END;";
+
+    private static final String SQL_CREATE_STATS_UPDATE_TRIGGER = "CREATE TRIGGER pets_stats_update AFTER UPDATE OF "
+            + COLUMN_BREED_ID + ", " + COLUMN_GENDER + ", " + COLUMN_WEIGHT + " ON "
+            + TABLE_NAME + " BEGIN "
+            + SQL_STATS_REMOVE_PET + SQL_STATS_ADD_PET + " END;";
+
+    private static final String SQL_CREATE_STATS_DELETE_TRIGGER = "CREATE TRIGGER pets_stats_delete AFTER DELETE ON "
+            + TABLE_NAME + " BEGIN "
+            + SQL_STATS_REMOVE_PET + " END;";
+
+    /** Read a single pet with the columns of {@link #petColumns()} by its _id */
+    public static final String SQL_QUERY_PET_BY_ID = "SELECT " + join(petColumns()) + " FROM "
+            + PETS_WITH_BREEDS + " WHERE " + COLUMN_ID + " = ?";
+
+    /** Delete a single pet by its _id */
+    public static final String SQL_DELETE_PET_BY_ID = "DELETE FROM " + TABLE_NAME
+            + " WHERE " + COLUMN_ID + " = ?";
+
+    /**
+     * Look a pet up by the key made from the name, breed and gender given as arguments. Of
+     * several pets with the key, the oldest is found, straight from the key index.
+     */
+    public static final String SQL_FIND_PET_BY_KEY = "SELECT " + COLUMN_ID + " FROM "
+            + TABLE_NAME + " WHERE " + COLUMN_PET_KEY + " = " + petKey("?", "?", "?")
+            + " ORDER BY " + COLUMN_ID + " LIMIT 1";
+
+    // Cache up to 2MB of database pages (negative values are in KiB)
+    private static final int CACHE_SIZE_KIB = 2048;
+
+    private PetSchema() {}
+
+    /**
+     * Returns the columns of a pet as the contract describes them, in the order queries that
+     * don't ask for any in particular return them.
+     */
+    public static String[] petColumns() {
+        return new String[]{COLUMN_ID, COLUMN_NAME, COLUMN_BREED, COLUMN_GENDER, COLUMN_WEIGHT};
+    }
+
+    /**
+     * Returns the pragmas that tune the connection writes go through. With write-ahead logging,
+     * synchronous=NORMAL only syncs at checkpoints and is still safe against corruption, which
+     * makes every commit much cheaper. The larger page cache keeps the indexes a big insert
+     * touches in memory. Write-ahead logging itself is turned on by the caller, as Android has
+     * its own switch for it. Android gives no way to tune the pooled read connections, so
+     * nothing here is meant for reads. None of the pragmas return a row.
+     */
+    public static List<String> connectionPragmas() {
+        return Arrays.asList(
+                "PRAGMA synchronous=NORMAL",
+                "PRAGMA cache_size=-" + CACHE_SIZE_KIB);
+    }
+
+    /**
+     * Returns the statements that create the pets table and the breeds table, together with
+     * everything that shadows them, in the order they have to run in.
+     */
+    public static List<String> createTables() {
+        List<String> statements = new ArrayList<>();
+        statements.add(SQL_CREATE_BREEDS_TABLE);
+        statements.add(SQL_CREATE_PETS_TABLE);
+        statements.addAll(createShadowTables());
+        return statements;
+    }
+
+    /**
+     * Returns the statements that create everything that shadows the pets table from the pets
+     * that are in it: its indexes, its key, its search table and the statistics tables.
+     */
+    public static List<String> createShadowTables() {
+        List<String> statements = new ArrayList<>();
+        // Indexes
+        Collections.addAll(statements,
+                SQL_CREATE_NAME_INDEX,
+                SQL_CREATE_BREED_INDEX,
+                SQL_CREATE_GENDER_WEIGHT_INDEX);
+        statements.addAll(createKeys());
+        // Search table
+        Collections.addAll(statements,
+                SQL_CREATE_FTS_TABLE,
+                SQL_CREATE_FTS_INSERT_TRIGGER,
+                SQL_CREATE_FTS_UPDATE_TRIGGER,
+                SQL_CREATE_FTS_DELETE_TRIGGER,
+                SQL_POPULATE_FTS_TABLE);
+        // Statistics, filled from the pets table before the triggers take over
+        Collections.addAll(statements,
+                SQL_CREATE_GENDER_STATS_TABLE,
+                SQL_CREATE_BREED_STATS_TABLE);
+        statements.addAll(rebuildStats());
+        Collections.addAll(statements,
+                SQL_CREATE_STATS_INSERT_TRIGGER,
+                SQL_CREATE_STATS_UPDATE_TRIGGER,
+                SQL_CREATE_STATS_DELETE_TRIGGER);
+        return statements;
+    }
+
+    /**
+     * Returns the statements that key the pets that are already there, then add the index on
+     * the key and the triggers that keep it up to date.
+     */
+    public static List<String> createKeys() {
+        return Arrays.asList(
+                SQL_POPULATE_KEYS,
+                SQL_CREATE_KEY_INDEX,
+                SQL_CREATE_KEY_INSERT_TRIGGER,
+                SQL_CREATE_KEY_UPDATE_TRIGGER);
+    }
+
+    /**
+     * Returns the statements that drop the index on the key and its triggers, as
+     * {@link #createKeys()} creates them.
+     */
+    public static List<String> dropKeys() {
+        return Arrays.asList(
+                "DROP INDEX IF EXISTS pets_key_index",
+                "DROP TRIGGER IF EXISTS pets_key_insert",
+                "DROP TRIGGER IF EXISTS pets_key_update");
+    }
+
+    /**
+     * Returns the statements that create the search table again from the pets, as
+     * {@link #createShadowTables()} creates it. Its triggers are on the pets table and stay.
+     */
+    public static List<String> rebuildSearchTable() {
+        return Arrays.asList(
+                "DROP TABLE IF EXISTS " + FTS_TABLE_NAME,
+                SQL_CREATE_FTS_TABLE,
+                SQL_POPULATE_FTS_TABLE);
+    }
+
+    /**
+     * Build the tables of a full-text search of the given number of words, whose MATCH
+     * expression is its first argument: the best matches, joined to their pets and breeds.
+     *
+     * The matches are ranked inside a subquery of the search table alone, so only those that
+     * are kept are joined to anything. The rank is the number of words in the name, which
+     * matchinfo() has without reading the text of the match, unlike offsets(). It holds three
+     * numbers for every word and column, the first of them being the hits in this row, so a word
+     * is in the name if that number isn't 0. A limit above 0 keeps only that many of the best
+     * matches, ties broken by name as in {@link #SEARCH_SORT_ORDER}.
+     */
+    public static String searchTables(int wordCount, int limit) {
+        int columnCount = 2;
+        StringBuilder rank = new StringBuilder();
+        for (int i = 0; i < wordCount; i++) {
+            int offset = 3 * i * columnCount * 4;
+            if (i > 0) {
+                rank.append(" + ");
+            }
+            rank.append("(substr(matchinfo(").append(FTS_TABLE_NAME).append(", 'x'), ")
+                    .append(offset + 1).append(", 4) != X'00000000')");
+        }
+        return "(SELECT docid, " + rank + " AS " + COLUMN_SEARCH_RANK + " FROM "
+                + FTS_TABLE_NAME + " WHERE " + FTS_TABLE_NAME + " MATCH ? ORDER BY "
+                + COLUMN_SEARCH_RANK + " DESC, " + COLUMN_NAME + " COLLATE NOCASE"
+                + (limit > 0 ? " LIMIT " + limit : "") + ") AS " + SEARCH_HITS
+                + " JOIN " + TABLE_NAME + " ON (" + TABLE_NAME + "." + COLUMN_ID + " = "
+                + SEARCH_HITS + ".docid) LEFT JOIN " + BREEDS_TABLE_NAME
+                + " USING (" + COLUMN_BREED_ID + ")";
+    }
+
+    /**
+     * Returns the statements that delete every pet and breed by dropping the pets table and all
+     * the tables that shadow it and creating them again empty. Dropping the pets table drops its
+     * indexes and triggers too. The _id sequence starts over, but the breeds table is only
+     * emptied, as dropping it would start its sequence over as well and hand out ids that
+     * breeds had before.
+     */
+    public static List<String> truncateTables() {
+        List<String> statements = new ArrayList<>();
+        Collections.addAll(statements,
+                "DROP TABLE IF EXISTS " + TABLE_NAME,
+                "DROP TABLE IF EXISTS " + FTS_TABLE_NAME,
+                "DROP TABLE IF EXISTS " + GENDER_STATS_TABLE_NAME,
+                "DROP TABLE IF EXISTS " + BREED_STATS_TABLE_NAME,
+                "DELETE FROM sqlite_sequence WHERE name = '" + TABLE_NAME + "'",
+                "DELETE FROM " + BREEDS_TABLE_NAME,
+                SQL_CREATE_PETS_TABLE);
+        statements.addAll(createShadowTables());
+        return statements;
+    }
+
+    /**
+     * Returns the statements that upgrade a database of the given version so that it keeps all
+     * of its pets and ends up with the same schema as a newly created one. Version 6 rebuilt the
+     * pets table and everything that shadows it, which brings any earlier version up to date in
+     * one step as well.
+     */
+    public static List<String> upgradeTables(int oldVersion) {
+        List<String> statements = new ArrayList<>();
+        if (oldVersion < 6) {
+            statements.addAll(moveBreedsToTable());
+            return statements;
+        }
+        if (oldVersion < 7) {
+            // The key index is no longer unique, and the pets that were left without a key as
+            // duplicates get theirs
+            statements.addAll(dropKeys());
+            statements.addAll(createKeys());
+        }
+        if (oldVersion < 8) {
+            statements.addAll(rebuildBreedsTable());
+        }
+        if (oldVersion < 9) {
+            statements.addAll(rebuildSearchTable());
+        }
+        return statements;
+    }
+
+    /**
+     * Returns the statements that rebuild a pets table that has its breeds as text into one
+     * that refers to the breeds table, keeping the _id of every pet and the _id sequence. The
+     * indexes and triggers of the old table go with it, and the search and statistics tables are
+     * created again from the new one, whatever version they were at.
+     */
+    private static List<String> moveBreedsToTable() {
+        String oldPets = TABLE_NAME + "_old";
+        String columns = COLUMN_ID + ", " + COLUMN_NAME + ", " + COLUMN_GENDER + ", "
+                + COLUMN_WEIGHT;
+        List<String> statements = new ArrayList<>();
+        Collections.addAll(statements,
+                SQL_CREATE_BREEDS_TABLE,
+                "INSERT INTO " + BREEDS_TABLE_NAME + " (" + COLUMN_BREED + ") SELECT DISTINCT "
+                        + COLUMN_BREED + " FROM " + TABLE_NAME + " WHERE " + COLUMN_BREED
+                        + " IS NOT NULL",
+                "ALTER TABLE " + TABLE_NAME + " RENAME TO " + oldPets,
+                SQL_CREATE_PETS_TABLE,
+                "INSERT INTO " + TABLE_NAME + " (" + columns + ", " + COLUMN_BREED_ID
+                        + ") SELECT " + columns + ", (SELECT " + COLUMN_BREED_ID + " FROM "
+                        + BREEDS_TABLE_NAME + " WHERE " + BREEDS_TABLE_NAME + "." + COLUMN_BREED
+                        + " = " + oldPets + "." + COLUMN_BREED + ") FROM " + oldPets,
+                // Carry the sequence over, so that the _ids of deleted pets aren't handed out
+                // again
+                "DELETE FROM sqlite_sequence WHERE name = '" + TABLE_NAME + "'",
+                "UPDATE sqlite_sequence SET name = '" + TABLE_NAME + "' WHERE name = '"
+                        + oldPets + "'",
+                "DROP TABLE " + oldPets,
+                "DROP TABLE IF EXISTS " + FTS_TABLE_NAME,
+                "DROP TABLE IF EXISTS " + GENDER_STATS_TABLE_NAME,
+                "DROP TABLE IF EXISTS " + BREED_STATS_TABLE_NAME);
+        statements.addAll(createShadowTables());
+        return statements;
+    }
+
+    /**
+     * Returns the statements that create the breeds table again from its own rows, keeping
+     * their ids, so that it hands out ids with AUTOINCREMENT. The rows are copied aside rather
+     * than renaming the table, as renaming checks the triggers that use the breeds table, which
+     * would find it missing.
+     */
+    private static List<String> rebuildBreedsTable() {
+        String oldBreeds = "temp." + BREEDS_TABLE_NAME + "_old";
+        String columns = COLUMN_BREED_ID + ", " + COLUMN_BREED;
+        return Arrays.asList(
+                "CREATE TEMP TABLE " + BREEDS_TABLE_NAME + "_old AS SELECT " + columns + " FROM "
+                        + BREEDS_TABLE_NAME,
+                "DROP TABLE " + BREEDS_TABLE_NAME,
+                SQL_CREATE_BREEDS_TABLE,
+                // The sequence starts from the largest id copied over
+                "INSERT INTO " + BREEDS_TABLE_NAME + " (" + columns + ") SELECT " + columns
+                        + " FROM " + oldBreeds,
+                "DROP TABLE " + oldBreeds);
+    }
+
+    /**
+     * Returns the statements that recount the statistics tables from scratch from the pets
+     * table. The triggers make this unnecessary in normal use, but it puts things right should
+     * the tables ever drift.
+     */
+    public static List<String> rebuildStats() {
+        List<String> statements = new ArrayList<>();
+        statements.add("DELETE FROM " + GENDER_STATS_TABLE_NAME);
+        statements.add("DELETE FROM " + BREED_STATS_TABLE_NAME);
+
+        int[] genders = { GENDER_UNKNOWN, GENDER_MALE, GENDER_FEMALE };
+        for (int gender : genders) {
+            // Both sums come straight out of the (gender, weight) index
+            statements.add("INSERT INTO " + GENDER_STATS_TABLE_NAME + " ("
+                    + COLUMN_STATS_GENDER + ", "
+                    + COLUMN_STATS_PET_COUNT + ", "
+                    + COLUMN_STATS_WEIGHT_TOTAL + ") SELECT " + gender + ", COUNT(*), IFNULL(SUM("
+                    + COLUMN_WEIGHT + "), 0) FROM " + TABLE_NAME + " WHERE "
+                    + COLUMN_GENDER + " = " + gender);
+        }
+
+        statements.add("INSERT INTO " + BREED_STATS_TABLE_NAME + " ("
+                + COLUMN_STATS_BREED + ", "
+                + COLUMN_STATS_PET_COUNT + ") SELECT IFNULL("
+                + COLUMN_BREED + ", ''), COUNT(*) FROM "
+                + PETS_WITH_BREEDS + " GROUP BY IFNULL(" + COLUMN_BREED + ", '')");
+        return statements;
+    }
+
+    /**
+     * Build the statement that inserts a pet with the given columns of the pets table, whose
+     * values are its arguments in the same order. When the columns include the name and the
+     * gender, the statement works out the key of the pet from its arguments and writes it as
+     * well, rather than leaving it to the insert trigger, which would have to write the new row
+     * a second time.
+     */
+    public static String insertPet(String... columns) {
+        String name = null;
+        String breed = "NULL";
+        String gender = null;
+        StringBuilder arguments = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            // Numbered, so that the key can use the same arguments again
+            String argument = "?" + (i + 1);
+            arguments.append(i > 0 ? ", " : "").append(argument);
+            if (columns[i].equals(COLUMN_NAME)) {
+                name = argument;
+            } else if (columns[i].equals(COLUMN_BREED_ID)) {
+                breed = "(SELECT " + COLUMN_BREED + " FROM " + BREEDS_TABLE_NAME
+                        + " WHERE " + COLUMN_BREED_ID + " = " + argument + ")";
+            } else if (columns[i].equals(COLUMN_GENDER)) {
+                gender = argument;
+            }
+        }
+        if (name == null || gender == null) {
+            return "INSERT INTO " + TABLE_NAME + " (" + join(columns) + ") VALUES ("
+                    + arguments + ")";
+        }
+        return "INSERT INTO " + TABLE_NAME + " (" + join(columns) + ", " + COLUMN_PET_KEY
+                + ") VALUES (" + arguments + ", " + petKey(name, breed, gender) + ")";
+    }
+
+    /**
+     * Build the statement that updates the given columns of the pets table of a single pet. The
+     * _id of the pet is the last argument.
+     */
+    public static String updatePetById(String... columns) {
+        return "UPDATE " + TABLE_NAME + " SET " + joinArguments(columns, ", ")
+                + " WHERE " + COLUMN_ID + " = ?";
+    }
+
+    /**
+     * Build the selection of the pets whose given columns equal the arguments, as used to delete
+     * pets by criteria. A breed is compared by its id, so its argument has to be the id.
+     */
+    public static String matchingPets(String... columns) {
+        String[] tableColumns = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            tableColumns[i] = columns[i].equals(COLUMN_BREED) ? COLUMN_BREED_ID : columns[i];
+        }
+        return joinArguments(tableColumns, " AND ");
+    }
+
+    /**
+     * Looks up the ids of breeds, for comparing pets by the id of their breed.
+     */
+    public interface BreedIds {
+
+        /** Returns the id of the given breed, or -1 if no pet has ever had it */
+        long find(String breed);
+    }
+
+    /**
+     * Rewrite every "breed = ?" in a selection of the pets joined to their breeds into a
+     * comparison of the breed id, so that it is an integer comparison on the pets table rather
+     * than a text one on the breeds table. The matching arguments in the given array are replaced
+     * by the ids, or by -1 for breeds no pet has, which matches nothing, so the caller has to
+     * pass in its own copy. Selections with quoted text or numbered arguments are returned as
+     * they are, as their arguments can't be counted reliably.
+     */
+    public static String translateBreeds(String selection, String[] selectionArgs,
+                                         BreedIds breedIds) {
+        if (selection == null || selectionArgs == null || selection.indexOf('\'') >= 0
+                || selection.indexOf('"') >= 0) {
+            return selection;
+        }
+        Matcher matcher = BREED_EQUALS_ARGUMENT.matcher(selection);
+        StringBuilder translated = new StringBuilder(selection.length());
+        int[] arguments = new int[selectionArgs.length];
+        int found = 0;
+        int copied = 0;
+        while (matcher.find()) {
+            int argument = countArguments(selection, matcher.end() - 1);
+            if (argument < 0 || argument >= selectionArgs.length
+                    || selectionArgs[argument] == null) {
+                return selection;
+            }
+            arguments[found++] = argument;
+            translated.append(selection, copied, matcher.start())
+                    .append(COLUMN_BREED_ID).append(" = ?");
+            copied = matcher.end();
+        }
+        if (found == 0) {
+            return selection;
+        }
+        // Only touch the arguments once the whole selection is known to be translated
+        for (int i = 0; i < found; i++) {
+            selectionArgs[arguments[i]] = String.valueOf(breedIds.find(selectionArgs[arguments[i]]));
+        }
+        return translated.append(selection, copied, selection.length()).toString();
+    }
+
+    /**
+     * Returns the given selection of the pets joined to their breeds in a form that works on the
+     * pets table alone, for updates and deletes. Breeds compared to an argument are compared by
+     * their ids, see {@link #translateBreeds}, and a selection that still needs the breeds after
+     * that picks the _ids of its pets from the pets joined to their breeds. The selection
+     * arguments are translated in place.
+     */
+    public static String petsTableSelection(String selection, String[] selectionArgs,
+                                            BreedIds breedIds) {
+        String translated = translateBreeds(selection, selectionArgs, breedIds);
+        if (translated == null || !BREED_COLUMN.matcher(translated).find()) {
+            return translated;
+        }
+        return COLUMN_ID + " IN (SELECT " + COLUMN_ID + " FROM " + PETS_WITH_BREEDS
+                + " WHERE " + translated + ")";
+    }
+
+    /**
+     * Returns the number of arguments before the given position, or -1 if the selection has
+     * numbered arguments.
+     */
+    private static int countArguments(String selection, int end) {
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            if (selection.charAt(i) == '?') {
+                if (i + 1 < selection.length() && Character.isDigit(selection.charAt(i + 1))) {
+                    return -1;
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Build the expression of the key of a pet from the name, breed and gender columns of the
+     * given trigger row ("new" or "old"), or of the table itself if it is null. The parts are
+     * separated by the unit separator character, which doesn't turn up in names.
+     */
+    private static String petKey(String row) {
+        String prefix = (row != null ? row : TABLE_NAME) + ".";
+        return petKey(prefix + COLUMN_NAME, breedOf(row), prefix + COLUMN_GENDER);
+    }
+
+    /**
+     * Build the expression of the key of a pet from the given name, breed and gender
+     * expressions, such as "?" for arguments.
+     */
+    public static String petKey(String name, String breed, String gender) {
+        return "lower(trim(" + name + ")) || X'1F' || lower(trim(IFNULL(" + breed + ", '')))"
+                + " || X'1F' || " + gender;
+    }
+
+    /**
+     * Build the expression of the breed of the pet in the given trigger row ("new" or "old"),
+     * or in the pets table if it is null, looked up by its id.
+     */
+    private static String breedOf(String row) {
+        return "(SELECT " + COLUMN_BREED + " FROM " + BREEDS_TABLE_NAME
+                + " WHERE " + BREEDS_TABLE_NAME + "." + COLUMN_BREED_ID + " = "
+                + (row != null ? row : TABLE_NAME) + "." + COLUMN_BREED_ID + ")";
+    }
+
+    /**
+     * Build the statements that add the pet in the given trigger row ("new" or "old") to the
+     * statistics.
+     */
+    private static String statsAddPet(String row) {
+        String breed = "IFNULL(" + breedOf(row) + ", '')";
+        return "UPDATE " + GENDER_STATS_TABLE_NAME + " SET "
+                + COLUMN_STATS_PET_COUNT + " = " + COLUMN_STATS_PET_COUNT + " + 1, "
+                + COLUMN_STATS_WEIGHT_TOTAL + " = " + COLUMN_STATS_WEIGHT_TOTAL + " + "
+                + row + "." + COLUMN_WEIGHT
+                + " WHERE " + COLUMN_STATS_GENDER + " = " + row + "." + COLUMN_GENDER + "; "
+                + "INSERT OR IGNORE INTO " + BREED_STATS_TABLE_NAME + " ("
+                + COLUMN_STATS_BREED + ", " + COLUMN_STATS_PET_COUNT + ") VALUES (" + breed + ", 0); "
+                + "UPDATE " + BREED_STATS_TABLE_NAME + " SET "
+                + COLUMN_STATS_PET_COUNT + " = " + COLUMN_STATS_PET_COUNT + " + 1"
+                + " WHERE " + COLUMN_STATS_BREED + " = " + breed + "; ";
+    }
+
+    /**
+     * Build the statements that take the pet in the given trigger row ("new" or "old") out of
+     * the statistics.
+     */
+    private static String statsRemovePet(String row) {
+        String breed = "IFNULL(" + breedOf(row) + ", '')";
+        return "UPDATE " + GENDER_STATS_TABLE_NAME + " SET "
+                + COLUMN_STATS_PET_COUNT + " = " + COLUMN_STATS_PET_COUNT + " - 1, "
+                + COLUMN_STATS_WEIGHT_TOTAL + " = " + COLUMN_STATS_WEIGHT_TOTAL + " - "
+                + row + "." + COLUMN_WEIGHT
+                + " WHERE " + COLUMN_STATS_GENDER + " = " + row + "." + COLUMN_GENDER + "; "
+                + "UPDATE " + BREED_STATS_TABLE_NAME + " SET "
+                + COLUMN_STATS_PET_COUNT + " = " + COLUMN_STATS_PET_COUNT + " - 1"
+                + " WHERE " + COLUMN_STATS_BREED + " = " + breed + "; "
+                + "DELETE FROM " + BREED_STATS_TABLE_NAME
+                + " WHERE " + COLUMN_STATS_BREED + " = " + breed
+                + " AND " + COLUMN_STATS_PET_COUNT + " <= 0; ";
+    }
+
+    private static String join(String[] columns) {
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                joined.append(", ");
+            }
+            joined.append(columns[i]);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * Join "column = ?" for every column with the given separator.
+     */
+    private static String joinArguments(String[] columns, String separator) {
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                joined.append(separator);
+            }
+            joined.append(columns[i]).append(" = ?");
+        }
+        return joined.toString();
+    }
+}
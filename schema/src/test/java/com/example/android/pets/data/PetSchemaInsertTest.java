@@ -0,0 +1,109 @@
+package com.example.android.pets.data;
+
+import static com.example.android.pets.data.PetTestDatabase.exec;
+import static com.example.android.pets.data.PetTestDatabase.query;
+import static com.example.android.pets.data.PetTestDatabase.queryLong;
+import static com.example.android.pets.data.PetTestDatabase.row;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Checks that the statements of {@link PetSchema#insertPet(String...)} write the same key as the
+ * insert trigger does, whatever order the columns come in.
+ */
+public class PetSchemaInsertTest {
+
+    private Connection mConnection;
+
+    @Before
+    public void setUp() throws SQLException {
+        mConnection = PetTestDatabase.create();
+        exec(mConnection, "INSERT INTO " + PetSchema.BREEDS_TABLE_NAME + " ("
+                + PetSchema.COLUMN_BREED_ID + ", " + PetSchema.COLUMN_BREED
+                + ") VALUES (1, 'Terrier')");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        mConnection.close();
+    }
+
+    @Test
+    public void writesKeyWithBreed() throws SQLException {
+        long id = insert(new String[]{ PetSchema.COLUMN_NAME, PetSchema.COLUMN_BREED_ID,
+                PetSchema.COLUMN_GENDER, PetSchema.COLUMN_WEIGHT }, " Toto ", 1, 1, 7);
+        checkKey(id, "toto\u001Fterrier\u001F1");
+        assertEquals(id, findByKey("TOTO", "terrier ", 1));
+    }
+
+    @Test
+    public void writesKeyWithColumnsInAnyOrder() throws SQLException {
+        long id = insert(new String[]{ PetSchema.COLUMN_WEIGHT, PetSchema.COLUMN_GENDER,
+                PetSchema.COLUMN_BREED_ID, PetSchema.COLUMN_NAME }, 7, 2, 1, "Lady");
+        checkKey(id, "lady\u001Fterrier\u001F2");
+    }
+
+    @Test
+    public void writesKeyWithoutBreed() throws SQLException {
+        long id = insert(new String[]{ PetSchema.COLUMN_GENDER, PetSchema.COLUMN_NAME },
+                0, "Binx");
+        checkKey(id, "binx\u001F\u001F0");
+        assertEquals(id, findByKey("binx", "", 0));
+    }
+
+    @Test
+    public void writesKeyWithUnknownBreedId() throws SQLException {
+        long id = insert(new String[]{ PetSchema.COLUMN_NAME, PetSchema.COLUMN_GENDER,
+                PetSchema.COLUMN_BREED_ID }, "Milo", 1, 42);
+        checkKey(id, "milo\u001F\u001F1");
+    }
+
+    @Test
+    public void leavesKeyToTriggerWithoutNameOrGender() {
+        String sql = PetSchema.insertPet(PetSchema.COLUMN_NAME, PetSchema.COLUMN_WEIGHT);
+        assertFalse(sql, sql.contains(PetSchema.COLUMN_PET_KEY));
+        assertTrue(PetSchema.insertPet(PetSchema.COLUMN_NAME, PetSchema.COLUMN_GENDER)
+                .contains(PetSchema.COLUMN_PET_KEY));
+    }
+
+    /**
+     * Insert a pet with the statement for the given columns and return its _id.
+     */
+    private long insert(String[] columns, Object... values) throws SQLException {
+        PreparedStatement insert = mConnection.prepareStatement(PetSchema.insertPet(columns));
+        try {
+            for (int i = 0; i < values.length; i++) {
+                insert.setObject(i + 1, values[i]);
+            }
+            insert.executeUpdate();
+        } finally {
+            insert.close();
+        }
+        return queryLong(mConnection, "SELECT last_insert_rowid()");
+    }
+
+    /**
+     * Check that the pet has the given key, and that it is the key the trigger would have
+     * worked out from the pet as it was written.
+     */
+    private void checkKey(long id, String key) throws SQLException {
+        assertEquals(Arrays.asList(row(key, key)), query(mConnection, "SELECT "
+                + PetSchema.COLUMN_PET_KEY + ", " + PetSchema.petKey(PetSchema.COLUMN_NAME,
+                PetSchema.COLUMN_BREED, PetSchema.COLUMN_GENDER) + " FROM "
+                + PetSchema.PETS_WITH_BREEDS + " WHERE " + PetSchema.COLUMN_ID + " = ?", id));
+    }
+
+    private long findByKey(String name, String breed, int gender) throws SQLException {
+        return queryLong(mConnection, PetSchema.SQL_FIND_PET_BY_KEY, name, breed, gender);
+    }
+}
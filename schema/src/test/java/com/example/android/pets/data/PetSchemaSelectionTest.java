@@ -0,0 +1,163 @@
+package com.example.android.pets.data;
+
+import static com.example.android.pets.data.PetTestDatabase.exec;
+import static com.example.android.pets.data.PetTestDatabase.query;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that {@link PetSchema#translateBreeds} and {@link PetSchema#petsTableSelection} only
+ * rewrite the selections they can translate, and that the rewritten selections pick the same
+ * pets as the original ones do on the pets joined to their breeds.
+ */
+public class PetSchemaSelectionTest {
+
+    /** Ids of the breeds in the test database */
+    private static final Map<String, Long> BREED_IDS = new HashMap<>();
+    static {
+        BREED_IDS.put("Terrier", 1L);
+        BREED_IDS.put("Tabby", 2L);
+    }
+
+    /** Looks breeds up in {@link #BREED_IDS}, and counts how often it was asked */
+    private static class CountingBreedIds implements PetSchema.BreedIds {
+        int lookups;
+
+        @Override
+        public long find(String breed) {
+            lookups++;
+            Long id = BREED_IDS.get(breed);
+            return id != null ? id : -1;
+        }
+    }
+
+    private final CountingBreedIds mBreedIds = new CountingBreedIds();
+    private Connection mConnection;
+
+    @Before
+    public void setUp() throws SQLException {
+        mConnection = PetTestDatabase.create();
+        exec(mConnection,
+                "INSERT INTO " + PetSchema.BREEDS_TABLE_NAME + " (" + PetSchema.COLUMN_BREED_ID
+                        + ", " + PetSchema.COLUMN_BREED + ") VALUES (1, 'Terrier'), (2, 'Tabby')",
+                "INSERT INTO " + PetSchema.TABLE_NAME + " (" + PetSchema.COLUMN_NAME + ", "
+                        + PetSchema.COLUMN_BREED_ID + ", " + PetSchema.COLUMN_GENDER + ", "
+                        + PetSchema.COLUMN_WEIGHT + ") VALUES ('Toto', 1, 1, 7),"
+                        + " ('Garfield', 2, 1, 12), ('Binx', NULL, 2, 3), ('Lady', 2, 2, 4)");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        mConnection.close();
+    }
+
+    @Test
+    public void translatesBreedComparedToArgument() {
+        String[] args = { "Tabby", "5" };
+        assertEquals("breed_id = ? AND weight > ?",
+                PetSchema.translateBreeds("breed = ? AND weight > ?", args, mBreedIds));
+        assertArrayEquals(new String[]{ "2", "5" }, args);
+    }
+
+    @Test
+    public void translatesEveryBreedArgumentInPlace() {
+        String[] args = { "4", "Terrier", "Tabby" };
+        assertEquals("weight > ? AND (breed_id = ? OR breed_id = ?)", PetSchema.translateBreeds(
+                "weight > ? AND (breed = ? OR breed=?)", args, mBreedIds));
+        assertArrayEquals(new String[]{ "4", "1", "2" }, args);
+    }
+
+    @Test
+    public void unknownBreedMatchesNothing() {
+        String[] args = { "Poodle" };
+        assertEquals("breed_id = ?", PetSchema.translateBreeds("breed = ?", args, mBreedIds));
+        assertArrayEquals(new String[]{ "-1" }, args);
+    }
+
+    @Test
+    public void leavesSelectionsItCannotCountAlone() {
+        checkUntranslated("breed = ? AND name = 'Toto'", "Tabby");
+        checkUntranslated("breed = ? AND name = \"Toto\"", "Tabby");
+        checkUntranslated("breed = ?1", "Tabby");
+        checkUntranslated("weight > ?2 AND breed = ?", "3", "Tabby");
+        // A null breed can't be compared by its id
+        checkUntranslated("breed = ?", (String) null);
+        // Not the breed column, or not compared to an argument
+        checkUntranslated("pets.breed = ?", "Tabby");
+        checkUntranslated("old_breed = ?", "Tabby");
+        checkUntranslated("breed IS NULL");
+        checkUntranslated("breed LIKE ?", "Tab%");
+        assertEquals(null, PetSchema.translateBreeds(null, new String[0], mBreedIds));
+        assertEquals("breed = ?", PetSchema.translateBreeds("breed = ?", null, mBreedIds));
+    }
+
+    @Test
+    public void petsTableSelectionWrapsRemainingBreeds() {
+        String[] args = { "Tab%", "Terrier" };
+        assertEquals("_id IN (SELECT _id FROM " + PetSchema.PETS_WITH_BREEDS
+                        + " WHERE breed LIKE ? OR breed_id = ?)",
+                PetSchema.petsTableSelection("breed LIKE ? OR breed = ?", args, mBreedIds));
+        assertArrayEquals(new String[]{ "Tab%", "1" }, args);
+        assertEquals("weight > ?", PetSchema.petsTableSelection("weight > ?",
+                new String[]{ "3" }, mBreedIds));
+        assertEquals(null, PetSchema.petsTableSelection(null, null, mBreedIds));
+    }
+
+    @Test
+    public void translatedSelectionsPickTheSamePets() throws SQLException {
+        checkSamePets("breed = ?", "Tabby");
+        checkSamePets("breed = ?", "Poodle");
+        checkSamePets("breed = ? OR breed = ?", "Terrier", "Tabby");
+        checkSamePets("gender = ? AND breed = ?", "2", "Tabby");
+        checkSamePets("breed IS NULL");
+        checkSamePets("breed LIKE ? OR weight < ?", "T%", "4");
+        checkSamePets("breed = ? AND name = 'Lady'", "Tabby");
+        checkSamePets("weight >= ?2 AND breed = ?1", "Tabby", "5");
+    }
+
+    /**
+     * Check that the selection and its arguments are left as they are, and no breed looked up.
+     */
+    private void checkUntranslated(String selection, String... selectionArgs) {
+        String[] args = selectionArgs.clone();
+        assertSame(selection, PetSchema.translateBreeds(selection, args, mBreedIds));
+        assertArrayEquals(selectionArgs, args);
+        assertEquals(0, mBreedIds.lookups);
+    }
+
+    /**
+     * Check that the selection picks the same pets from the pets table, both as the query and as
+     * the update and delete paths of the provider translate it, as it does from the pets joined
+     * to their breeds.
+     */
+    private void checkSamePets(String selection, String... selectionArgs) throws SQLException {
+        List<List<Object>> expected = selectIds(PetSchema.PETS_WITH_BREEDS, selection,
+                selectionArgs);
+
+        String[] args = selectionArgs.clone();
+        String translated = PetSchema.translateBreeds(selection, args, mBreedIds);
+        assertEquals(selection, expected, selectIds(PetSchema.PETS_WITH_BREEDS, translated, args));
+
+        args = selectionArgs.clone();
+        String petsTable = PetSchema.petsTableSelection(selection, args, mBreedIds);
+        assertEquals(selection, expected, selectIds(PetSchema.TABLE_NAME, petsTable, args));
+    }
+
+    private List<List<Object>> selectIds(String table, String selection, String[] selectionArgs)
+            throws SQLException {
+        return query(mConnection, "SELECT " + PetSchema.COLUMN_ID + " FROM " + table
+                + " WHERE " + selection + " ORDER BY " + PetSchema.COLUMN_ID,
+                (Object[]) selectionArgs);
+    }
+}
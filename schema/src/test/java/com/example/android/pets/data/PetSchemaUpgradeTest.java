@@ -0,0 +1,227 @@
+package com.example.android.pets.data;
+
+import static com.example.android.pets.data.PetTestDatabase.exec;
+import static com.example.android.pets.data.PetTestDatabase.execAll;
+import static com.example.android.pets.data.PetTestDatabase.query;
+import static com.example.android.pets.data.PetTestDatabase.queryLong;
+import static com.example.android.pets.data.PetTestDatabase.row;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Upgrades databases as every earlier version of the app created them with
+ * {@link PetSchema#upgradeTables(int)}, and checks that they keep their pets and end up the same
+ * as a database created at the current version.
+ */
+public class PetSchemaUpgradeTest {
+
+    /** Pets written before the upgrade: name, breed, gender and weight */
+    private static final Object[][] PETS = {
+            { "Toto", "Terrier", PetSchema.GENDER_MALE, 7 },
+            { "Garfield", "Tabby", PetSchema.GENDER_MALE, 12 },
+            // Has the same key as Toto
+            { " toto ", "terrier", PetSchema.GENDER_MALE, 5 },
+            { "Binx", null, PetSchema.GENDER_FEMALE, 3 },
+            // Deleted again, so the _id sequence is ahead of the largest _id
+            { "Lady", "Tabby", PetSchema.GENDER_FEMALE, 4 } };
+
+    /** The pets that are left, as the pets joined to their breeds read them */
+    private static final List<List<Object>> EXPECTED_PETS = Arrays.asList(
+            row(1, "Toto", "Terrier", PetSchema.GENDER_MALE, 7),
+            row(2, "Garfield", "Tabby", PetSchema.GENDER_MALE, 12),
+            row(3, " toto ", "terrier", PetSchema.GENDER_MALE, 5),
+            row(4, "Binx", null, PetSchema.GENDER_FEMALE, 3));
+
+    private Connection mConnection;
+    private Connection mExpected;
+
+    @After
+    public void tearDown() throws SQLException {
+        if (mConnection != null) {
+            mConnection.close();
+        }
+        if (mExpected != null) {
+            mExpected.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion1() throws Exception {
+        checkUpgrade(1);
+    }
+
+    @Test
+    public void upgradeFromVersion2() throws Exception {
+        checkUpgrade(2);
+    }
+
+    @Test
+    public void upgradeFromVersion3() throws Exception {
+        checkUpgrade(3);
+    }
+
+    @Test
+    public void upgradeFromVersion4() throws Exception {
+        checkUpgrade(4);
+    }
+
+    @Test
+    public void upgradeFromVersion5() throws Exception {
+        checkUpgrade(5);
+    }
+
+    @Test
+    public void upgradeFromVersion6() throws Exception {
+        checkUpgrade(6);
+    }
+
+    @Test
+    public void upgradeFromVersion7() throws Exception {
+        checkUpgrade(7);
+    }
+
+    @Test
+    public void upgradeFromVersion8() throws Exception {
+        checkUpgrade(8);
+    }
+
+    @Test
+    public void currentVersionNeedsNoUpgrade() {
+        assertTrue(PetSchema.upgradeTables(PetSchema.VERSION).isEmpty());
+    }
+
+    /**
+     * Write {@link #PETS} into a database of the given version, upgrade it in one transaction,
+     * as SQLiteOpenHelper does, and check the result.
+     */
+    private void checkUpgrade(int version) throws Exception {
+        mConnection = PetTestDatabase.createVersion(version);
+        insertPets(version);
+
+        mConnection.setAutoCommit(false);
+        execAll(mConnection, PetSchema.upgradeTables(version));
+        mConnection.commit();
+        mConnection.setAutoCommit(true);
+
+        mExpected = PetTestDatabase.create();
+        assertEquals("schema", schema(mExpected), schema(mConnection));
+
+        assertEquals(EXPECTED_PETS, query(mConnection, "SELECT " + PetSchema.COLUMN_ID + ", "
+                + PetSchema.COLUMN_NAME + ", " + PetSchema.COLUMN_BREED + ", "
+                + PetSchema.COLUMN_GENDER + ", " + PetSchema.COLUMN_WEIGHT + " FROM "
+                + PetSchema.PETS_WITH_BREEDS + " ORDER BY " + PetSchema.COLUMN_ID));
+
+        // Every pet has its key, duplicates included
+        assertEquals(0, queryLong(mConnection, "SELECT COUNT(*) FROM "
+                + PetSchema.PETS_WITH_BREEDS + " WHERE " + PetSchema.COLUMN_PET_KEY + " IS NOT "
+                + PetSchema.petKey(PetSchema.COLUMN_NAME, PetSchema.COLUMN_BREED,
+                        PetSchema.COLUMN_GENDER)));
+
+        // The statistics are what counting the pets again gives
+        List<List<Object>> genderStats = query(mConnection,
+                "SELECT * FROM " + PetSchema.GENDER_STATS_TABLE_NAME + " ORDER BY 1");
+        List<List<Object>> breedStats = query(mConnection,
+                "SELECT * FROM " + PetSchema.BREED_STATS_TABLE_NAME + " ORDER BY 1");
+        execAll(mConnection, PetSchema.rebuildStats());
+        assertEquals(query(mConnection,
+                "SELECT * FROM " + PetSchema.GENDER_STATS_TABLE_NAME + " ORDER BY 1"),
+                genderStats);
+        assertEquals(query(mConnection,
+                "SELECT * FROM " + PetSchema.BREED_STATS_TABLE_NAME + " ORDER BY 1"),
+                breedStats);
+
+        // Both spellings of Toto are found, by a prefix the search table indexes
+        assertEquals(Arrays.asList(row(1), row(3)), query(mConnection, "SELECT docid FROM "
+                + PetSchema.FTS_TABLE_NAME + " WHERE " + PetSchema.FTS_TABLE_NAME
+                + " MATCH 'to*' ORDER BY docid"));
+
+        // New pets and breeds carry on after the largest _id and breed_id ever handed out
+        PreparedStatement insert = mConnection.prepareStatement(PetSchema.insertPet(
+                PetSchema.COLUMN_NAME, PetSchema.COLUMN_GENDER, PetSchema.COLUMN_WEIGHT));
+        try {
+            insert.setString(1, "Milo");
+            insert.setInt(2, PetSchema.GENDER_MALE);
+            insert.setInt(3, 9);
+            insert.executeUpdate();
+        } finally {
+            insert.close();
+        }
+        assertEquals(PETS.length + 1, queryLong(mConnection, "SELECT MAX("
+                + PetSchema.COLUMN_ID + ") FROM " + PetSchema.TABLE_NAME));
+        long lastBreedId = queryLong(mConnection, "SELECT MAX(" + PetSchema.COLUMN_BREED_ID
+                + ") FROM " + PetSchema.BREEDS_TABLE_NAME);
+        exec(mConnection, "DELETE FROM " + PetSchema.BREEDS_TABLE_NAME + " WHERE "
+                + PetSchema.COLUMN_BREED_ID + " = " + lastBreedId,
+                "INSERT INTO " + PetSchema.BREEDS_TABLE_NAME + " (" + PetSchema.COLUMN_BREED
+                        + ") VALUES ('Poodle')");
+        long breedId = queryLong(mConnection, "SELECT " + PetSchema.COLUMN_BREED_ID + " FROM "
+                + PetSchema.BREEDS_TABLE_NAME + " WHERE " + PetSchema.COLUMN_BREED
+                + " = 'Poodle'");
+        assertTrue("breed id " + breedId + " handed out again", breedId > lastBreedId);
+    }
+
+    /**
+     * Write {@link #PETS} the way the given version stored them, then delete the last one.
+     */
+    private void insertPets(int version) throws SQLException {
+        PreparedStatement insert;
+        if (version < 6) {
+            insert = mConnection.prepareStatement("INSERT INTO " + PetSchema.TABLE_NAME + " ("
+                    + PetSchema.COLUMN_NAME + ", " + PetSchema.COLUMN_BREED + ", "
+                    + PetSchema.COLUMN_GENDER + ", " + PetSchema.COLUMN_WEIGHT
+                    + ") VALUES (?, ?, ?, ?)");
+        } else {
+            insert = mConnection.prepareStatement("INSERT INTO " + PetSchema.TABLE_NAME + " ("
+                    + PetSchema.COLUMN_NAME + ", " + PetSchema.COLUMN_BREED_ID + ", "
+                    + PetSchema.COLUMN_GENDER + ", " + PetSchema.COLUMN_WEIGHT
+                    + ") VALUES (?, (SELECT " + PetSchema.COLUMN_BREED_ID + " FROM "
+                    + PetSchema.BREEDS_TABLE_NAME + " WHERE " + PetSchema.COLUMN_BREED
+                    + " = ?), ?, ?)");
+        }
+        PreparedStatement insertBreed = version < 6 ? null : mConnection.prepareStatement(
+                "INSERT OR IGNORE INTO " + PetSchema.BREEDS_TABLE_NAME + " ("
+                        + PetSchema.COLUMN_BREED + ") VALUES (?)");
+        try {
+            for (Object[] pet : PETS) {
+                if (insertBreed != null && pet[1] != null) {
+                    insertBreed.setObject(1, pet[1]);
+                    insertBreed.executeUpdate();
+                }
+                insert.setObject(1, pet[0]);
+                if (pet[1] == null) {
+                    insert.setNull(2, Types.VARCHAR);
+                } else {
+                    insert.setObject(2, pet[1]);
+                }
+                insert.setObject(3, pet[2]);
+                insert.setObject(4, pet[3]);
+                insert.executeUpdate();
+            }
+        } finally {
+            insert.close();
+            if (insertBreed != null) {
+                insertBreed.close();
+            }
+        }
+        exec(mConnection, "DELETE FROM " + PetSchema.TABLE_NAME + " WHERE "
+                + PetSchema.COLUMN_ID + " = " + PETS.length);
+    }
+
+    /**
+     * Returns every table, index, trigger and view with the SQL that created it.
+     */
+    private static List<List<Object>> schema(Connection connection) throws SQLException {
+        return query(connection, "SELECT type, name, tbl_name, sql FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%' ORDER BY type, name");
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.android.pets.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Databases for the tests, opened in memory with sqlite-jdbc so that the SQL of
+ * {@link PetSchema} runs on the JVM as it does on the device.
+ */
+final class PetTestDatabase {
+
+    private PetTestDatabase() {}
+
+    static Connection open() throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite::memory:");
+    }
+
+    /**
+     * Open a database with the tables of the current version, as PetDbHelper creates them.
+     */
+    static Connection create() throws SQLException {
+        Connection connection = open();
+        execAll(connection, PetSchema.createTables());
+        return connection;
+    }
+
+    /**
+     * Open a database with the tables the given earlier version of the app created, read from
+     * the schema-v<version>.sql resource next to this class.
+     */
+    static Connection createVersion(int version) throws SQLException, IOException {
+        Connection connection = open();
+        execAll(connection, readStatements("schema-v" + version + ".sql"));
+        return connection;
+    }
+
+    /**
+     * Run the given statements in order.
+     */
+    static void execAll(Connection connection, List<String> statements) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    static void exec(Connection connection, String... statements) throws SQLException {
+        execAll(connection, Arrays.asList(statements));
+    }
+
+    /**
+     * Run a query with the given arguments and return its rows, every row a list of its values.
+     */
+    static List<List<Object>> query(Connection connection, String sql, Object... args)
+            throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        try {
+            for (int i = 0; i < args.length; i++) {
+                statement.setObject(i + 1, args[i]);
+            }
+            ResultSet result = statement.executeQuery();
+            try {
+                int columnCount = result.getMetaData().getColumnCount();
+                List<List<Object>> rows = new ArrayList<>();
+                while (result.next()) {
+                    List<Object> row = new ArrayList<>(columnCount);
+                    for (int i = 1; i <= columnCount; i++) {
+                        row.add(result.getObject(i));
+                    }
+                    rows.add(row);
+                }
+                return rows;
+            } finally {
+                result.close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Run a query that returns a single number.
+     */
+    static long queryLong(Connection connection, String sql, Object... args) throws SQLException {
+        List<List<Object>> rows = query(connection, sql, args);
+        return ((Number) rows.get(0).get(0)).longValue();
+    }
+
+    /**
+     * Returns one row of values, for comparing with the rows of {@link #query}.
+     */
+    static List<Object> row(Object... values) {
+        return Arrays.asList(values);
+    }
+
+    /**
+     * Read the statements of a resource, one per line. Blank lines and lines starting with "--"
+     * are skipped.
+     */
+    private static List<String> readStatements(String name) throws IOException {
+        InputStream in = PetTestDatabase.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Missing resource " + name);
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            List<String> statements = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("--")) {
+                    statements.add(line);
+                }
+            }
+            return statements;
+        } finally {
+            reader.close();
+        }
+    }
+}
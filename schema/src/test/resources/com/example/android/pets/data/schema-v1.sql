@@ -0,0 +1,2 @@
+-- The pets database as version 1 of the app created it, one statement per line
+CREATE TABLE pets (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, breed TEXT, gender INTEGER NOT NULL, weight INTEGER NOT NULL DEFAULT 0);
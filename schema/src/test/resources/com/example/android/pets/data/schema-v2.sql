@@ -0,0 +1,5 @@
+-- The pets database as version 2 of the app created it, one statement per line
+CREATE TABLE pets (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, breed TEXT, gender INTEGER NOT NULL, weight INTEGER NOT NULL DEFAULT 0);
+CREATE INDEX IF NOT EXISTS pets_name_index ON pets (name COLLATE NOCASE);
+CREATE INDEX IF NOT EXISTS pets_breed_index ON pets (breed);
+CREATE INDEX IF NOT EXISTS pets_gender_weight_index ON pets (gender, weight);
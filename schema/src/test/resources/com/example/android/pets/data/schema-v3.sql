@@ -0,0 +1,9 @@
+-- The pets database as version 3 of the app created it, one statement per line
+CREATE TABLE pets (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, breed TEXT, gender INTEGER NOT NULL, weight INTEGER NOT NULL DEFAULT 0);
+CREATE INDEX IF NOT EXISTS pets_name_index ON pets (name COLLATE NOCASE);
+CREATE INDEX IF NOT EXISTS pets_breed_index ON pets (breed);
+CREATE INDEX IF NOT EXISTS pets_gender_weight_index ON pets (gender, weight);
+CREATE VIRTUAL TABLE pets_fts USING fts4(name, breed);
+CREATE TRIGGER pets_fts_insert AFTER INSERT ON pets BEGIN INSERT INTO pets_fts (docid, name, breed) VALUES (new._id, new.name, new.breed); END;
+CREATE TRIGGER pets_fts_update AFTER UPDATE OF name, breed ON pets BEGIN UPDATE pets_fts SET name = new.name, breed = new.breed WHERE docid = old._id; END;
+CREATE TRIGGER pets_fts_delete AFTER DELETE ON pets BEGIN DELETE FROM pets_fts WHERE docid = old._id; END;
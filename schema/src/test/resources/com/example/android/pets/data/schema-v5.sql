@@ -0,0 +1,20 @@
+-- The pets database as version 5 of the app created it, one statement per line
+CREATE TABLE pets (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, breed TEXT, gender INTEGER NOT NULL, weight INTEGER NOT NULL DEFAULT 0, pet_key TEXT);
+CREATE INDEX IF NOT EXISTS pets_name_index ON pets (name COLLATE NOCASE);
+CREATE INDEX IF NOT EXISTS pets_breed_index ON pets (breed);
+CREATE INDEX IF NOT EXISTS pets_gender_weight_index ON pets (gender, weight);
+CREATE UNIQUE INDEX IF NOT EXISTS pets_key_index ON pets (pet_key);
+CREATE TRIGGER pets_key_insert AFTER INSERT ON pets BEGIN UPDATE OR IGNORE pets SET pet_key = lower(trim(new.name)) || X'1F' || lower(trim(IFNULL(new.breed, ''))) || X'1F' || new.gender WHERE _id = new._id; END;
+CREATE TRIGGER pets_key_update AFTER UPDATE OF name, breed, gender ON pets BEGIN UPDATE pets SET pet_key = NULL WHERE _id = new._id; UPDATE OR IGNORE pets SET pet_key = lower(trim(new.name)) || X'1F' || lower(trim(IFNULL(new.breed, ''))) || X'1F' || new.gender WHERE _id = new._id; END;
+CREATE VIRTUAL TABLE pets_fts USING fts4(name, breed);
+CREATE TRIGGER pets_fts_insert AFTER INSERT ON pets BEGIN INSERT INTO pets_fts (docid, name, breed) VALUES (new._id, new.name, new.breed); END;
+CREATE TRIGGER pets_fts_update AFTER UPDATE OF name, breed ON pets BEGIN UPDATE pets_fts SET name = new.name, breed = new.breed WHERE docid = old._id; END;
+CREATE TRIGGER pets_fts_delete AFTER DELETE ON pets BEGIN DELETE FROM pets_fts WHERE docid = old._id; END;
+CREATE TABLE pet_stats (gender INTEGER PRIMARY KEY, pet_count INTEGER NOT NULL DEFAULT 0, weight_total INTEGER NOT NULL DEFAULT 0);
+CREATE TABLE breed_stats (breed TEXT PRIMARY KEY NOT NULL, pet_count INTEGER NOT NULL DEFAULT 0);
+INSERT INTO pet_stats (gender, pet_count, weight_total) VALUES (0, 0, 0);
+INSERT INTO pet_stats (gender, pet_count, weight_total) VALUES (1, 0, 0);
+INSERT INTO pet_stats (gender, pet_count, weight_total) VALUES (2, 0, 0);
+CREATE TRIGGER pets_stats_insert AFTER INSERT ON pets BEGIN UPDATE pet_stats SET pet_count = pet_count + 1, weight_total = weight_total + new.weight WHERE gender = new.gender; INSERT OR IGNORE INTO breed_stats (breed, pet_count) VALUES (IFNULL(new.breed, ''), 0); UPDATE breed_stats SET pet_count = pet_count + 1 WHERE breed = IFNULL(new.breed, '');  END;
+CREATE TRIGGER pets_stats_update AFTER UPDATE OF breed, gender, weight ON pets BEGIN UPDATE pet_stats SET pet_count = pet_count - 1, weight_total = weight_total - old.weight WHERE gender = old.gender; UPDATE breed_stats SET pet_count = pet_count - 1 WHERE breed = IFNULL(old.breed, ''); DELETE FROM breed_stats WHERE breed = IFNULL(old.breed, '') AND pet_count <= 0; UPDATE pet_stats SET pet_count = pet_count + 1, weight_total = weight_total + new.weight WHERE gender = new.gender; INSERT OR IGNORE INTO breed_stats (breed, pet_count) VALUES (IFNULL(new.breed, ''), 0); UPDATE breed_stats SET pet_count = pet_count + 1 WHERE breed = IFNULL(new.breed, '');  END;
+CREATE TRIGGER pets_stats_delete AFTER DELETE ON pets BEGIN UPDATE pet_stats SET pet_count = pet_count - 1, weight_total = weight_total - old.weight WHERE gender = old.gender; UPDATE breed_stats SET pet_count = pet_count - 1 WHERE breed = IFNULL(old.breed, ''); DELETE FROM breed_stats WHERE breed = IFNULL(old.breed, '') AND pet_count <= 0;  END;
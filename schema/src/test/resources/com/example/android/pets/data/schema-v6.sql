@@ -0,0 +1,26 @@
+-- The pets database as version 6 of the app created it, one statement per line
+CREATE TABLE breeds (breed_id INTEGER PRIMARY KEY, breed TEXT NOT NULL UNIQUE);
+CREATE TABLE pets (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, breed_id INTEGER REFERENCES breeds, gender INTEGER NOT NULL, weight INTEGER NOT NULL DEFAULT 0, pet_key TEXT);
+CREATE INDEX IF NOT EXISTS pets_name_index ON pets (name COLLATE NOCASE);
+CREATE INDEX IF NOT EXISTS pets_breed_index ON pets (breed_id);
+CREATE INDEX IF NOT EXISTS pets_gender_weight_index ON pets (gender, weight);
+UPDATE pets SET pet_key = lower(trim(pets.name)) || X'1F' || lower(trim(IFNULL((SELECT breed FROM breeds WHERE breeds.breed_id = pets.breed_id), ''))) || X'1F' || pets.gender WHERE _id IN (SELECT MIN(_id) FROM pets GROUP BY lower(trim(pets.name)) || X'1F' || lower(trim(IFNULL((SELECT breed FROM breeds WHERE breeds.breed_id = pets.breed_id), ''))) || X'1F' || pets.gender);
+CREATE UNIQUE INDEX IF NOT EXISTS pets_key_index ON pets (pet_key);
+CREATE TRIGGER pets_key_insert AFTER INSERT ON pets BEGIN UPDATE OR IGNORE pets SET pet_key = lower(trim(new.name)) || X'1F' || lower(trim(IFNULL((SELECT breed FROM breeds WHERE breeds.breed_id = new.breed_id), ''))) || X'1F' || new.gender WHERE _id = new._id; END;
+CREATE TRIGGER pets_key_update AFTER UPDATE OF name, breed_id, gender ON pets BEGIN UPDATE pets SET pet_key = NULL WHERE _id = new._id; UPDATE OR IGNORE pets SET pet_key = lower(trim(new.name)) || X'1F' || lower(trim(IFNULL((SELECT breed FROM breeds WHERE breeds.breed_id = new.breed_id), ''))) || X'1F' || new.gender WHERE _id = new._id; END;
+CREATE VIRTUAL TABLE pets_fts USING fts4(name, breed);
+CREATE TRIGGER pets_fts_insert AFTER INSERT ON pets BEGIN INSERT INTO pets_fts (docid, name, breed) VALUES (new._id, new.name, (SELECT breed FROM breeds WHERE breeds.breed_id = new.breed_id)); END;
+CREATE TRIGGER pets_fts_update AFTER UPDATE OF name, breed_id ON pets BEGIN UPDATE pets_fts SET name = new.name, breed = (SELECT breed FROM breeds WHERE breeds.breed_id = new.breed_id) WHERE docid = old._id; END;
+CREATE TRIGGER pets_fts_delete AFTER DELETE ON pets BEGIN DELETE FROM pets_fts WHERE docid = old._id; END;
+INSERT INTO pets_fts (docid, name, breed) SELECT _id, name, breed FROM pets LEFT JOIN breeds USING (breed_id);
+CREATE TABLE pet_stats (gender INTEGER PRIMARY KEY, pet_count INTEGER NOT NULL DEFAULT 0, weight_total INTEGER NOT NULL DEFAULT 0);
+CREATE TABLE breed_stats (breed TEXT PRIMARY KEY NOT NULL, pet_count INTEGER NOT NULL DEFAULT 0);
+DELETE FROM pet_stats;
+DELETE FROM breed_stats;
+INSERT INTO pet_stats (gender, pet_count, weight_total) SELECT 0, COUNT(*), IFNULL(SUM(weight), 0) FROM pets WHERE gender = 0;
+INSERT INTO pet_stats (gender, pet_count, weight_total) SELECT 1, COUNT(*), IFNULL(SUM(weight), 0) FROM pets WHERE gender = 1;
+INSERT INTO pet_stats (gender, pet_count, weight_total) SELECT 2, COUNT(*), IFNULL(SUM(weight), 0) FROM pets WHERE gender = 2;
+INSERT INTO breed_stats (breed, pet_count) SELECT IFNULL(breed, ''), COUNT(*) FROM pets LEFT JOIN breeds USING (breed_id) GROUP BY IFNULL(breed, '');
+CREATE TRIGGER pets_stats_insert AFTER INSERT ON pets BEGIN UPDATE pet_stats SET pet_count = pet_count + 1, weight_total = weight_total + new.weight WHERE gender = new.gender; INSERT OR IGNORE INTO breed_stats (breed, pet_count) VALUES (IFNULL((SELECT breed FROM breeds WHERE breeds.breed_id = new.breed_id), ''), 0); UPDATE breed_stats SET pet_count = pet_count + 1 WHERE breed = IFNULL((SELECT breed FROM breeds WHERE breeds.breed_id = new.breed_id), '');  END;
+CREATE TRIGGER pets_stats_update AFTER UPDATE OF breed_id, gender, weight ON pets BEGIN UPDATE pet_stats SET pet_count = pet_count - 1, weight_total = weight_total - old.weight WHERE gender = old.gender; UPDATE breed_stats SET pet_count = pet_count - 1 WHERE breed = IFNULL((SELECT breed FROM breeds WHERE breeds.breed_id = old.breed_id), ''); DELETE FROM breed_stats WHERE breed = IFNULL((SELECT breed FROM breeds WHERE breeds.breed_id = old.breed_id), '') AND pet_count <= 0; UPDATE pet_stats SET pet_count = pet_count + 1, weight_total = weight_total + new.weight WHERE gender = new.gender; INSERT OR IGNORE INTO breed_stats (breed, pet_count) VALUES (IFNULL((SELECT breed FROM breeds WHERE breeds.breed_id = new.breed_id), ''), 0); UPDATE breed_stats SET pet_count = pet_count + 1 WHERE breed = IFNULL((SELECT breed FROM breeds WHERE breeds.breed_id = new.breed_id), '');  END;
+CREATE TRIGGER pets_stats_delete AFTER DELETE ON pets BEGIN UPDATE pet_stats SET pet_count = pet_count - 1, weight_total = weight_total - old.weight WHERE gender = old.gender; UPDATE breed_stats SET pet_count = pet_count - 1 WHERE breed = IFNULL((SELECT breed FROM breeds WHERE breeds.breed_id = old.breed_id), ''); DELETE FROM breed_stats WHERE breed = IFNULL((SELECT breed FROM breeds WHERE breeds.breed_id = old.breed_id), '') AND pet_count <= 0;  END;